@@ -0,0 +1,352 @@
+package convex.java;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import convex.core.data.Address;
+import convex.java.asset.Fungible;
+
+/**
+ * Watches Accounts and fungible token holdings for changes, notifying listeners only when a
+ * watched value actually changes.
+ *
+ * All watched values are polled by a single background thread. Due values are grouped into
+ * batched queries of up to BATCH_SIZE addresses each, so watching thousands of addresses costs
+ * a small number of requests per poll. Polling intervals adapt: each value starts at the
+ * minimum interval, backs off exponentially towards the maximum while it is unchanged, and
+ * returns to the minimum as soon as it changes.
+ *
+ * Listeners are called on the watcher thread, and should return quickly. The first observation of
+ * a value is reported as a change from null.
+ */
+public class AccountWatcher implements Closeable {
+	/**
+	 * Key for changes to the Convex coin balance of an Account
+	 */
+	public static final String BALANCE="balance";
+
+	/**
+	 * Key for changes to the sequence number of an Account
+	 */
+	public static final String SEQUENCE="sequence";
+
+	/**
+	 * Maximum number of addresses in a single batched query
+	 */
+	public static final int BATCH_SIZE=100;
+
+	/**
+	 * Listener for changes to watched values
+	 */
+	@FunctionalInterface
+	public interface Listener {
+		/**
+		 * Called when a watched value changes
+		 * @param address Address of Account or token holder
+		 * @param key BALANCE or SEQUENCE for Accounts, or the token Address (e.g. "#42") for token holdings
+		 * @param oldValue Previous value, or null if not previously observed
+		 * @param newValue New value, or null if the Account does not exist
+		 */
+		void changed(Address address, String key, Long oldValue, Long newValue);
+	}
+
+	/**
+	 * A watched Account or token holding. Mutable state is guarded by the instance lock.
+	 */
+	private static final class Target {
+		final Address holder;
+		final Address token;
+		final CopyOnWriteArrayList<Listener> listeners=new CopyOnWriteArrayList<>();
+		Long balance;
+		Long sequence;
+		long interval;
+		long nextDue;
+		boolean inFlight;
+
+		Target(Address holder, Address token, long interval) {
+			this.holder=holder;
+			this.token=token;
+			this.interval=interval;
+			this.nextDue=0;
+		}
+	}
+
+	private final Convex convex;
+	private final long minInterval;
+	private final long maxInterval;
+	private final ScheduledExecutorService executor;
+
+	private final ConcurrentHashMap<Address,Target> accounts=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Address,ConcurrentHashMap<Address,Target>> tokens=new ConcurrentHashMap<>();
+
+	AccountWatcher(Convex convex, long minIntervalMillis, long maxIntervalMillis) {
+		if ((minIntervalMillis<1)||(maxIntervalMillis<minIntervalMillis)) throw new IllegalArgumentException("Invalid polling intervals: "+minIntervalMillis+", "+maxIntervalMillis);
+		this.convex=convex;
+		this.minInterval=minIntervalMillis;
+		this.maxInterval=maxIntervalMillis;
+		this.executor=Executors.newSingleThreadScheduledExecutor(r->{
+			Thread t=new Thread(r,"Convex account watcher");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(this::poll, 0, minIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Watches the balance and sequence number of an Account
+	 * @param address Address of Account
+	 * @param listener Listener to notify of changes
+	 */
+	public void watch(Address address, Listener listener) {
+		addListener(null,address,listener);
+	}
+
+	/**
+	 * Watches the balance of a fungible token for a holder
+	 * @param token Fungible token
+	 * @param holder Address of holder
+	 * @param listener Listener to notify of changes
+	 */
+	public void watch(Fungible token, Address holder, Listener listener) {
+		addListener(token.getAddress(),holder,listener);
+	}
+
+	/**
+	 * Stops notifying a listener of changes to an Account
+	 * @param address Address of Account
+	 * @param listener Listener to remove
+	 */
+	public void unwatch(Address address, Listener listener) {
+		removeListener(null,address,listener);
+	}
+
+	/**
+	 * Stops notifying a listener of changes to a token holding
+	 * @param token Fungible token
+	 * @param holder Address of holder
+	 * @param listener Listener to remove
+	 */
+	public void unwatch(Fungible token, Address holder, Listener listener) {
+		removeListener(token.getAddress(),holder,listener);
+	}
+
+	/**
+	 * Gets the number of Accounts and token holdings currently watched
+	 * @return Number of watched targets
+	 */
+	public int size() {
+		int n=accounts.size();
+		for (ConcurrentHashMap<Address,Target> m: tokens.values()) {
+			n+=m.size();
+		}
+		return n;
+	}
+
+	/**
+	 * Gets a snapshot of the last observed values for an Account
+	 * @param address Address of Account
+	 * @return Map with BALANCE and SEQUENCE values, or null if the Account is not watched
+	 */
+	public Map<String,Long> getLastValues(Address address) {
+		Target t=accounts.get(address);
+		if (t==null) return null;
+		HashMap<String,Long> result=new HashMap<>();
+		synchronized(t) {
+			result.put(BALANCE, t.balance);
+			result.put(SEQUENCE, t.sequence);
+		}
+		return result;
+	}
+
+	private void addListener(Address token, Address holder, Listener listener) {
+		if ((holder==null)||(listener==null)) throw new IllegalArgumentException("Address and listener required");
+		if (token==null) {
+			addTo(accounts,null,holder,listener);
+		} else {
+			// within compute, so a concurrent removal can't drop the token map
+			tokens.compute(token, (k,m)->{
+				if (m==null) m=new ConcurrentHashMap<>();
+				addTo(m,token,holder,listener);
+				return m;
+			});
+		}
+	}
+
+	private void addTo(ConcurrentHashMap<Address,Target> m, Address token, Address holder, Listener listener) {
+		// the listener is added within compute, so a concurrent removal can't drop the Target
+		m.compute(holder, (k,t)->{
+			if (t==null) t=new Target(holder,token,minInterval);
+			t.listeners.add(listener);
+			return t;
+		});
+	}
+
+	private void removeListener(Address token, Address holder, Listener listener) {
+		if (token==null) {
+			removeFrom(accounts,holder,listener);
+		} else {
+			tokens.computeIfPresent(token, (k,m)->{
+				removeFrom(m,holder,listener);
+				return m.isEmpty()?null:m;
+			});
+		}
+	}
+
+	private void removeFrom(ConcurrentHashMap<Address,Target> m, Address holder, Listener listener) {
+		m.computeIfPresent(holder, (k,t)->{
+			t.listeners.remove(listener);
+			return t.listeners.isEmpty()?null:t;
+		});
+	}
+
+	/**
+	 * Runs a polling round on the watcher thread, querying all due targets in batches
+	 */
+	private void poll() {
+		long now=System.currentTimeMillis();
+		poll(null,accounts,now);
+		for (Map.Entry<Address,ConcurrentHashMap<Address,Target>> me: tokens.entrySet()) {
+			poll(me.getKey(),me.getValue(),now);
+		}
+	}
+
+	private void poll(Address token, ConcurrentHashMap<Address,Target> m, long now) {
+		ArrayList<Target> due=new ArrayList<>();
+		for (Target t: m.values()) {
+			synchronized(t) {
+				if (t.inFlight||(t.nextDue>now)) continue;
+				t.inFlight=true;
+			}
+			due.add(t);
+			if (due.size()==BATCH_SIZE) {
+				query(token,due);
+				due=new ArrayList<>();
+			}
+		}
+		if (!due.isEmpty()) query(token,due);
+	}
+
+	private void query(Address token, List<Target> batch) {
+		StringBuilder sb=new StringBuilder();
+		if (token==null) {
+			sb.append("(mapv (fn [a] (let [acc (account a)] (if acc [(:balance acc) (:sequence acc)] nil))) [");
+		} else {
+			sb.append("(do (import convex.fungible :as fungible) (mapv (fn [a] (fungible/balance "+token+" a)) [");
+		}
+		for (Target t: batch) {
+			sb.append(t.holder.toString());
+			sb.append(' ');
+		}
+		sb.append((token==null)?"])":"]))");
+
+		try {
+			convex.queryOutcomeAsync(sb.toString()).thenAcceptAsync(o->update(batch,o),executor).exceptionally(e->{
+				update(batch,Outcome.fromThrowable(e));
+				return null;
+			});
+		} catch (Throwable e) {
+			// an exception escaping would cancel all future polling
+			update(batch,Outcome.fromThrowable(e));
+		}
+	}
+
+	private void update(List<Target> batch, Outcome<Object> o) {
+		long now=System.currentTimeMillis();
+		List<?> values=(!o.isError()&&(o.getValue() instanceof List))?(List<?>)o.getValue():null;
+		for (int i=0; i<batch.size(); i++) {
+			Target t=batch.get(i);
+			if (values==null) {
+				// failed query, so retry after the normal interval without backing off further
+				synchronized(t) {
+					t.nextDue=now+t.interval;
+					t.inFlight=false;
+				}
+				continue;
+			}
+			Object v=(i<values.size())?values.get(i):null;
+			if (t.token==null) {
+				Long balance=null;
+				Long sequence=null;
+				if (v instanceof List) {
+					List<?> pair=(List<?>)v;
+					if (pair.size()>=2) {
+						balance=toLong(pair.get(0));
+						sequence=toLong(pair.get(1));
+					}
+				}
+				Long oldBalance;
+				Long oldSequence;
+				boolean changed;
+				synchronized(t) {
+					oldBalance=t.balance;
+					oldSequence=t.sequence;
+					changed=!equals(oldBalance,balance)||!equals(oldSequence,sequence)||(t.nextDue==0);
+					t.balance=balance;
+					t.sequence=sequence;
+					reschedule(t,changed,now);
+				}
+				if (!equals(oldBalance,balance)) notify(t,BALANCE,oldBalance,balance);
+				if (!equals(oldSequence,sequence)) notify(t,SEQUENCE,oldSequence,sequence);
+			} else {
+				Long balance=toLong(v);
+				Long oldBalance;
+				boolean changed;
+				synchronized(t) {
+					oldBalance=t.balance;
+					changed=!equals(oldBalance,balance)||(t.nextDue==0);
+					t.balance=balance;
+					reschedule(t,changed,now);
+				}
+				if (!equals(oldBalance,balance)) notify(t,t.token.toString(),oldBalance,balance);
+			}
+		}
+	}
+
+	/**
+	 * Sets the next polling time for a target. Must be called while holding the target lock
+	 */
+	private void reschedule(Target t, boolean changed, long now) {
+		t.interval=changed?minInterval:Math.min(maxInterval, t.interval*2);
+		t.nextDue=now+t.interval;
+		t.inFlight=false;
+	}
+
+	private void notify(Target t, String key, Long oldValue, Long newValue) {
+		for (Listener l: t.listeners) {
+			try {
+				l.changed(t.holder, key, oldValue, newValue);
+			} catch (Throwable e) {
+				// a failing listener must not stop notification of others, or the watcher thread,
+				// so report it as the thread would an uncaught exception
+				Thread thread=Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+			}
+		}
+	}
+
+	private static Long toLong(Object o) {
+		return (o instanceof Number)?((Number)o).longValue():null;
+	}
+
+	private static boolean equals(Long a, Long b) {
+		return (a==null)?(b==null):a.equals(b);
+	}
+
+	/**
+	 * Stops watching all values
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		accounts.clear();
+		tokens.clear();
+	}
+}
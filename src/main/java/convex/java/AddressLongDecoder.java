@@ -0,0 +1,310 @@
+package convex.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder for query responses containing integer values per Address. Values are read
+ * straight from the response into an AddressLongMap, without building the intermediate JSON
+ * objects, boxed Longs or Addresses that JSON.parse(...) would create.
+ *
+ * The response "value" must be a JSON array, in one of two forms:
+ * <ul>
+ * <li>Positional: one integer or null per Address in a given key array, e.g. the result of
+ * <code>(mapv (fn [a] (balance a)) [#1 #2])</code>. Null values are omitted from the map, and
+ * the number of values must match the number of keys.</li>
+ * <li>Pairs: arrays of [address value], where the address is an integer or a string such as "#12".</li>
+ * </ul>
+ * An error response is decoded as an error Outcome.
+ */
+final class AddressLongDecoder {
+	private final Reader in;
+	private final char[] buf=new char[8192];
+	private int pos=0;
+	private int lim=0;
+
+	private AddressLongDecoder(InputStream is) {
+		this.in=new InputStreamReader(is,StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes a query response
+	 * @param is Input stream for response body
+	 * @param keys Address values for a positional result, or null for a result of pairs
+	 * @return Outcome with decoded values, or error Outcome if the response is an error
+	 * @throws IOException If the stream cannot be read
+	 * @throws ClientException If the response is not in the expected format
+	 */
+	static Outcome<AddressLongMap> decode(InputStream is, long[] keys) throws IOException, ClientException {
+		try {
+			return new AddressLongDecoder(is).readResponse(keys);
+		} finally {
+			is.close();
+		}
+	}
+
+	private Outcome<AddressLongMap> readResponse(long[] keys) throws IOException, ClientException {
+		AddressLongMap map=null;
+		String errorCode=null;
+		Object message=null;
+		expect('{');
+		if (peek()=='}') {
+			next();
+		} else {
+			do {
+				String field=readString();
+				expect(':');
+				if ("value".equals(field)&&(peek()=='[')) {
+					map=(keys!=null)?readPositional(keys):readPairs();
+				} else if ("value".equals(field)) {
+					message=readScalar();
+				} else if ("errorCode".equals(field)) {
+					Object code=readScalar();
+					if (code!=null) errorCode=code.toString();
+				} else {
+					skipValue();
+				}
+			} while (nextSeparator('}'));
+		}
+		if (errorCode!=null) return Outcome.error(errorCode, message);
+		if (map==null) throw format("Expected array value in response");
+		return Outcome.of(map);
+	}
+
+	private AddressLongMap readPositional(long[] keys) throws IOException, ClientException {
+		AddressLongMap map=new AddressLongMap(keys.length);
+		expect('[');
+		if (peek()==']') {
+			next();
+			if (keys.length>0) throw format("Expected "+keys.length+" values but got 0");
+			return map;
+		}
+		int i=0;
+		do {
+			if (i>=keys.length) throw format("More values than expected: "+keys.length);
+			if (peek()=='n') {
+				readLiteral("null");
+			} else {
+				map.put(keys[i], readLong());
+			}
+			i++;
+		} while (nextSeparator(']'));
+		if (i<keys.length) throw format("Expected "+keys.length+" values but got "+i);
+		return map;
+	}
+
+	private AddressLongMap readPairs() throws IOException, ClientException {
+		AddressLongMap map=new AddressLongMap();
+		expect('[');
+		if (peek()==']') {
+			next();
+			return map;
+		}
+		do {
+			expect('[');
+			long address;
+			if (peek()=='"') {
+				String s=readString();
+				try {
+					address=Long.parseLong(s.startsWith("#")?s.substring(1):s);
+				} catch (NumberFormatException e) {
+					throw format("Invalid Address: "+s);
+				}
+			} else {
+				address=readLong();
+			}
+			expect(',');
+			if (peek()=='n') {
+				readLiteral("null");
+			} else {
+				map.put(address, readLong());
+			}
+			expect(']');
+		} while (nextSeparator(']'));
+		return map;
+	}
+
+	private long readLong() throws IOException, ClientException {
+		int c=peek();
+		boolean negative=(c=='-');
+		if (negative) next();
+		long v=0;
+		int digits=0;
+		while (true) {
+			c=peekRaw();
+			if ((c<'0')||(c>'9')) break;
+			pos++;
+			int d=c-'0';
+			if ((v<Long.MIN_VALUE/10)||(v*10<Long.MIN_VALUE+d)) throw format("Integer out of range");
+			v=v*10-d;
+			digits++;
+		}
+		if (digits==0) throw format("Expected integer");
+		if ((c=='.')||(c=='e')||(c=='E')) throw format("Expected integer but got a fractional number");
+		// accumulated as a negative value so that Long.MIN_VALUE can be represented
+		if (negative) return v;
+		if (v==Long.MIN_VALUE) throw format("Integer out of range");
+		return -v;
+	}
+
+	/**
+	 * Reads a string, number, boolean or null. Arrays and objects are skipped and read as null.
+	 */
+	private Object readScalar() throws IOException, ClientException {
+		int c=peek();
+		if (c=='"') return readString();
+		if (c=='t') {
+			readLiteral("true");
+			return Boolean.TRUE;
+		}
+		if (c=='f') {
+			readLiteral("false");
+			return Boolean.FALSE;
+		}
+		if (c=='n') {
+			readLiteral("null");
+			return null;
+		}
+		if ((c=='-')||((c>='0')&&(c<='9'))) {
+			StringBuilder sb=new StringBuilder();
+			while (true) {
+				c=peekRaw();
+				if ((c<0)||("+-.eE0123456789".indexOf(c)<0)) break;
+				sb.append((char)c);
+				pos++;
+			}
+			return sb.toString();
+		}
+		skipValue();
+		return null;
+	}
+
+	private void skipValue() throws IOException, ClientException {
+		int c=peek();
+		if ((c=='[')||(c=='{')) {
+			int depth=0;
+			do {
+				c=peek();
+				if (c<0) throw format("Unexpected end of input");
+				if (c=='"') {
+					readString();
+					continue;
+				}
+				next();
+				if ((c=='[')||(c=='{')) depth++;
+				if ((c==']')||(c=='}')) depth--;
+			} while (depth>0);
+		} else {
+			readScalar();
+		}
+	}
+
+	private String readString() throws IOException, ClientException {
+		expect('"');
+		StringBuilder sb=new StringBuilder();
+		while (true) {
+			int c=nextRaw();
+			if (c<0) throw format("Unterminated string");
+			if (c=='"') return sb.toString();
+			if (c=='\\') {
+				c=nextRaw();
+				switch (c) {
+					case 'n': sb.append('\n'); break;
+					case 't': sb.append('\t'); break;
+					case 'r': sb.append('\r'); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'u': {
+						int u=0;
+						for (int i=0; i<4; i++) {
+							int d=Character.digit(nextRaw(), 16);
+							if (d<0) throw format("Invalid unicode escape");
+							u=u*16+d;
+						}
+						sb.append((char)u);
+						break;
+					}
+					default:
+						if (c<0) throw format("Unterminated string");
+						sb.append((char)c);
+				}
+			} else {
+				sb.append((char)c);
+			}
+		}
+	}
+
+	private void readLiteral(String literal) throws IOException, ClientException {
+		skipWhitespace();
+		for (int i=0; i<literal.length(); i++) {
+			if (nextRaw()!=literal.charAt(i)) throw format("Expected "+literal);
+		}
+	}
+
+	/**
+	 * Reads either a comma or the closing character of an array or object
+	 * @return true if a comma was read, false if the closing character was read
+	 */
+	private boolean nextSeparator(char close) throws IOException, ClientException {
+		int c=next();
+		if (c==',') return true;
+		if (c==close) return false;
+		throw format("Expected ',' or '"+close+"'");
+	}
+
+	private void expect(char ch) throws IOException, ClientException {
+		if (next()!=ch) throw format("Expected '"+ch+"'");
+	}
+
+	private ClientException format(String message) {
+		return new ClientException(Outcome.FORMAT,message);
+	}
+
+	/**
+	 * Gets the next non-whitespace character without consuming it, or -1 at end of input
+	 */
+	private int peek() throws IOException {
+		skipWhitespace();
+		return peekRaw();
+	}
+
+	/**
+	 * Consumes the next non-whitespace character, or returns -1 at end of input
+	 */
+	private int next() throws IOException {
+		skipWhitespace();
+		return nextRaw();
+	}
+
+	private void skipWhitespace() throws IOException {
+		while (true) {
+			int c=peekRaw();
+			if ((c==' ')||(c=='\n')||(c=='\r')||(c=='\t')) {
+				pos++;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private int peekRaw() throws IOException {
+		if ((pos>=lim)&&!fill()) return -1;
+		return buf[pos];
+	}
+
+	private int nextRaw() throws IOException {
+		if ((pos>=lim)&&!fill()) return -1;
+		return buf[pos++];
+	}
+
+	private boolean fill() throws IOException {
+		int n=in.read(buf, 0, buf.length);
+		if (n<=0) return false;
+		pos=0;
+		lim=n;
+		return true;
+	}
+}
@@ -0,0 +1,284 @@
+package convex.java;
+
+import java.util.Arrays;
+
+import convex.core.data.Address;
+
+/**
+ * Map from Addresses to long values (e.g. balances), stored as primitive arrays.
+ *
+ * Entries are keyed by the long value of each Address, with open addressing and linear probing.
+ * Compared to a HashMap&lt;Address,Long&gt;, no Address, Long or entry objects are allocated per
+ * entry, so large maps use around 16-32 bytes per entry rather than 100 or more.
+ *
+ * This class is not thread safe.
+ */
+public final class AddressLongMap {
+	private static final long EMPTY=-1;
+	private static final int MIN_CAPACITY=16;
+
+	private long[] keys;
+	private long[] values;
+	private int size=0;
+	private int mask;
+
+	/**
+	 * Receiver for map entries
+	 */
+	@FunctionalInterface
+	public interface EntryConsumer {
+		void accept(long address, long value);
+	}
+
+	/**
+	 * Creates an empty map
+	 */
+	public AddressLongMap() {
+		this(MIN_CAPACITY);
+	}
+
+	/**
+	 * Creates an empty map with capacity for an expected number of entries
+	 * @param expectedSize Expected number of entries
+	 */
+	public AddressLongMap(int expectedSize) {
+		if (expectedSize<0) throw new IllegalArgumentException("Negative size: "+expectedSize);
+		allocate(capacityFor(expectedSize));
+	}
+
+	private static int capacityFor(int n) {
+		long needed=Math.max(MIN_CAPACITY, (n*4L)/3+1);
+		if (needed>(1<<30)) throw new IllegalArgumentException("Map too large: "+n);
+		return Integer.highestOneBit((int)needed-1)<<1;
+	}
+
+	private void allocate(int capacity) {
+		keys=new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values=new long[capacity];
+		mask=capacity-1;
+	}
+
+	private int slot(long key) {
+		long h=key*0x9E3779B97F4A7C15L;
+		return (int)(h^(h>>>32))&mask;
+	}
+
+	private int find(long key) {
+		// negative keys are never present, and -1 would match empty slots
+		if (key<0) return -1;
+		int i=slot(key);
+		while (true) {
+			long k=keys[i];
+			if (k==key) return i;
+			if (k==EMPTY) return -1;
+			i=(i+1)&mask;
+		}
+	}
+
+	private static long checkKey(long address) {
+		if (address<0) throw new IllegalArgumentException("Invalid Address: "+address);
+		return address;
+	}
+
+	/**
+	 * Sets the value for an Address
+	 * @param address Long value of Address
+	 * @param value Value to set
+	 */
+	public void put(long address, long value) {
+		checkKey(address);
+		int i=slot(address);
+		while (true) {
+			long k=keys[i];
+			if (k==address) {
+				values[i]=value;
+				return;
+			}
+			if (k==EMPTY) break;
+			i=(i+1)&mask;
+		}
+		keys[i]=address;
+		values[i]=value;
+		if (++size*4L>keys.length*3L) rehash(keys.length*2);
+	}
+
+	/**
+	 * Sets the value for an Address
+	 * @param address Address
+	 * @param value Value to set
+	 */
+	public void put(Address address, long value) {
+		put(address.longValue(),value);
+	}
+
+	/**
+	 * Adds to the value for an Address, treating a missing entry as zero
+	 * @param address Long value of Address
+	 * @param delta Amount to add
+	 * @return New value
+	 */
+	public long add(long address, long delta) {
+		int i=find(address);
+		if (i>=0) return values[i]+=delta;
+		put(address,delta);
+		return delta;
+	}
+
+	/**
+	 * Gets the value for an Address
+	 * @param address Long value of Address
+	 * @param defaultValue Value to return if the Address is not present
+	 * @return Value for the Address, or defaultValue if not present
+	 */
+	public long get(long address, long defaultValue) {
+		int i=find(address);
+		return (i>=0)?values[i]:defaultValue;
+	}
+
+	/**
+	 * Gets the value for an Address
+	 * @param address Address
+	 * @param defaultValue Value to return if the Address is not present
+	 * @return Value for the Address, or defaultValue if not present
+	 */
+	public long get(Address address, long defaultValue) {
+		return get(address.longValue(),defaultValue);
+	}
+
+	/**
+	 * Checks if this map contains a value for an Address
+	 * @param address Long value of Address
+	 * @return true if present, false otherwise
+	 */
+	public boolean containsKey(long address) {
+		return find(address)>=0;
+	}
+
+	/**
+	 * Checks if this map contains a value for an Address
+	 * @param address Address
+	 * @return true if present, false otherwise
+	 */
+	public boolean containsKey(Address address) {
+		return containsKey(address.longValue());
+	}
+
+	/**
+	 * Removes the value for an Address
+	 * @param address Long value of Address
+	 * @return true if a value was removed, false if not present
+	 */
+	public boolean remove(long address) {
+		int i=find(address);
+		if (i<0) return false;
+
+		// shift later entries in the probe sequence back, so no tombstones are needed
+		int gap=i;
+		int j=i;
+		while (true) {
+			j=(j+1)&mask;
+			long k=keys[j];
+			if (k==EMPTY) break;
+			int home=slot(k);
+			// move the entry if its home slot is not cyclically within (gap, j]
+			if (((j-home)&mask)>=((j-gap)&mask)) {
+				keys[gap]=k;
+				values[gap]=values[j];
+				gap=j;
+			}
+		}
+		keys[gap]=EMPTY;
+		size--;
+		return true;
+	}
+
+	/**
+	 * Adds all entries from another map, replacing existing values
+	 * @param other Map to copy entries from
+	 */
+	public void putAll(AddressLongMap other) {
+		other.forEach(this::put);
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys=keys;
+		long[] oldValues=values;
+		allocate(capacity);
+		for (int i=0; i<oldKeys.length; i++) {
+			long k=oldKeys[i];
+			if (k==EMPTY) continue;
+			int j=slot(k);
+			while (keys[j]!=EMPTY) j=(j+1)&mask;
+			keys[j]=k;
+			values[j]=oldValues[i];
+		}
+	}
+
+	/**
+	 * Calls a consumer for each entry, in no particular order
+	 * @param consumer Receiver for entries
+	 */
+	public void forEach(EntryConsumer consumer) {
+		long[] ks=keys;
+		long[] vs=values;
+		for (int i=0; i<ks.length; i++) {
+			if (ks[i]!=EMPTY) consumer.accept(ks[i], vs[i]);
+		}
+	}
+
+	/**
+	 * Gets the long values of all Addresses in this map, in no particular order
+	 * @return New array of Address values
+	 */
+	public long[] keys() {
+		long[] result=new long[size];
+		int n=0;
+		for (long k: keys) {
+			if (k!=EMPTY) result[n++]=k;
+		}
+		return result;
+	}
+
+	/**
+	 * Gets the number of entries in this map
+	 * @return Number of entries
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if this map is empty
+	 * @return true if empty, false otherwise
+	 */
+	public boolean isEmpty() {
+		return size==0;
+	}
+
+	/**
+	 * Removes all entries, retaining the current capacity
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size=0;
+	}
+
+	/**
+	 * Gets the estimated heap size of this map
+	 * @return Estimated size in bytes
+	 */
+	public long getEstimatedBytes() {
+		return 96+16L*keys.length;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb=new StringBuilder("{");
+		forEach((k,v)->{
+			if (sb.length()>1) sb.append(", ");
+			sb.append('#').append(k).append(' ').append(v);
+		});
+		return sb.append('}').toString();
+	}
+}
@@ -0,0 +1,87 @@
+package convex.java;
+
+/**
+ * Policy marking a query as cacheable in a QueryCache, with the time its result may be reused.
+ *
+ * By default cached results are discarded whenever a transaction submitted through a Convex
+ * instance sharing the cache completes, since the transaction may have changed the queried state.
+ * Results that cannot be changed by transactions (e.g. immutable token metadata) can be marked
+ * stable, so that they are only discarded on expiry or explicit invalidation.
+ *
+ * Instances are immutable.
+ */
+public final class CachePolicy {
+	/**
+	 * Policy using the default time to live of the cache, with no scope
+	 */
+	public static final CachePolicy DEFAULT=new CachePolicy(0,null,false);
+
+	private final long ttlMillis;
+	private final String scope;
+	private final boolean stable;
+
+	private CachePolicy(long ttlMillis, String scope, boolean stable) {
+		this.ttlMillis=ttlMillis;
+		this.scope=scope;
+		this.stable=stable;
+	}
+
+	/**
+	 * Creates a policy with a specific time to live
+	 * @param ttlMillis Time to live for cached results in milliseconds, or 0 for the cache default
+	 * @return CachePolicy instance
+	 */
+	public static CachePolicy ttl(long ttlMillis) {
+		if (ttlMillis<0) throw new IllegalArgumentException("Negative time to live: "+ttlMillis);
+		return new CachePolicy(ttlMillis,null,false);
+	}
+
+	/**
+	 * Gets a policy with the same settings, with results placed in an invalidation scope. All
+	 * results in a scope can be discarded with QueryCache.invalidate(scope).
+	 *
+	 * @param scope Scope name, e.g. "registry" or a token Address
+	 * @return CachePolicy instance
+	 */
+	public CachePolicy withScope(String scope) {
+		return new CachePolicy(ttlMillis,scope,stable);
+	}
+
+	/**
+	 * Gets a policy with the same settings, with results that are retained when transactions
+	 * complete.
+	 * @return CachePolicy instance
+	 */
+	public CachePolicy stable() {
+		return new CachePolicy(ttlMillis,scope,true);
+	}
+
+	/**
+	 * Gets the time to live for results cached with this policy
+	 * @return Time to live in milliseconds, or 0 for the cache default
+	 */
+	public long getTTL() {
+		return ttlMillis;
+	}
+
+	/**
+	 * Gets the invalidation scope for results cached with this policy
+	 * @return Scope name, or null if none
+	 */
+	public String getScope() {
+		return scope;
+	}
+
+	/**
+	 * Checks if results cached with this policy are retained when transactions complete
+	 * @return true if stable, false otherwise
+	 */
+	public boolean isStable() {
+		return stable;
+	}
+
+	@Override
+	public String toString() {
+		return "CachePolicy ttl="+ttlMillis+" scope="+scope+" stable="+stable;
+	}
+}
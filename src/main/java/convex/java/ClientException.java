@@ -5,5 +5,31 @@ package convex.java;
  */
 @SuppressWarnings("serial")
 public class ClientException extends Exception {
+	private final String errorCode;
 
+	public ClientException() {
+		this(null,null);
+	}
+
+	public ClientException(String message) {
+		this(null,message);
+	}
+
+	public ClientException(String errorCode, String message) {
+		super(message);
+		this.errorCode=errorCode;
+	}
+
+	/**
+	 * Gets the error code for this exception, as used in Outcome
+	 * @return Error code, or null if not specified
+	 */
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	@Override
+	public String toString() {
+		return "ClientException "+errorCode+": "+getMessage();
+	}
 }
@@ -4,12 +4,18 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
@@ -33,24 +39,93 @@ import convex.core.util.Shutdown;
  * limitation.
  */
 public class Convex {
-	private static final CloseableHttpAsyncClient httpasyncclient = HttpAsyncClients.createDefault();
+	/**
+	 * Default timeout for requests, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT=60000;
 	
-	static {
-		httpasyncclient.start();
-		Shutdown.addHook(Shutdown.CLIENTHTTP, ()->{
-			try {
-				httpasyncclient.close();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	/**
+	 * Default maximum number of pooled connections per peer, as for HttpAsyncClients.createDefault()
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_PEER=2;
+	
+	/**
+	 * Default maximum number of pooled connections in total, as for HttpAsyncClients.createDefault()
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS=20;
+	
+	private static volatile int maxConnectionsPerPeer=DEFAULT_MAX_CONNECTIONS_PER_PEER;
+	private static volatile int maxConnections=DEFAULT_MAX_CONNECTIONS;
+	
+	/**
+	 * Shared async HTTP client. Created and started on first use, so that processes which never
+	 * connect don't pay for the IO reactor threads.
+	 */
+	private static volatile CloseableHttpAsyncClient httpasyncclient=null;
+	
+	private static CloseableHttpAsyncClient getHttpClient() {
+		CloseableHttpAsyncClient client=httpasyncclient;
+		if (client!=null) return client;
+		synchronized (Convex.class) {
+			client=httpasyncclient;
+			if (client==null) {
+				client=HttpAsyncClients.custom()
+						.setMaxConnPerRoute(maxConnectionsPerPeer)
+						.setMaxConnTotal(maxConnections)
+						.build();
+				client.start();
+				CloseableHttpAsyncClient c=client;
+				Shutdown.addHook(Shutdown.CLIENTHTTP, ()->{
+					try {
+						c.close();
+					} catch (IOException e) {
+						// TODO Auto-generated catch block
+						e.printStackTrace();
+					}
+				});
+				httpasyncclient=client;
 			}
-		});
+			return client;
+		}
+	}
+	
+	/**
+	 * Checks if the shared HTTP client has been started
+	 * @return true if started, false otherwise
+	 */
+	static boolean isHttpClientStarted() {
+		return httpasyncclient!=null;
+	}
+	
+	/**
+	 * Configures the shared HTTP connection pool. Must be called before any request is made, since
+	 * the pool is created on first use.
+	 * 
+	 * @param perPeer Maximum number of connections to any single peer
+	 * @param total Maximum number of connections in total
+	 */
+	public static synchronized void setConnectionPoolSize(int perPeer, int total) {
+		if ((perPeer<1)||(total<perPeer)) throw new IllegalArgumentException("Invalid connection pool size: "+perPeer+" per peer, "+total+" total");
+		if (httpasyncclient!=null) throw new IllegalStateException("HTTP client already started");
+		maxConnectionsPerPeer=perPeer;
+		maxConnections=total;
+	}
+	
+	/**
+	 * Gets the maximum number of pooled connections to any single peer
+	 * @return Maximum number of connections per peer
+	 */
+	public static int getMaxConnectionsPerPeer() {
+		return maxConnectionsPerPeer;
 	}
 	
 	private final String url;
 	private AKeyPair keyPair;
 	private Address address;
 	private Long sequence=null;
+	private volatile long timeout=DEFAULT_TIMEOUT;
+	private TransactionJournal journal=null;
+	private volatile QueryCache queryCache=null;
 	
 	private Convex(String peerServerURL) {
 		this.url=peerServerURL;
@@ -95,6 +170,9 @@ public class Convex {
 	 */
 	public Long getSequence() {
 		if (address==null) throw new IllegalStateException("Can't get sequence number because current Address is null");
+		if ((sequence==null)&&(journal!=null)) {
+			sequence=journal.getSequence(address);
+		}
 		if (sequence==null) {
 			sequence=querySequence();
 		}
@@ -142,6 +220,47 @@ public class Convex {
 		this.keyPair=keyPair;
 	}
 
+	/**
+	 * Sets the default timeout for requests made by this connection instance. This applies to all 
+	 * blocking calls and to async calls where no timeout is specified. When a timeout expires, the 
+	 * HTTP request in flight is aborted.
+	 * 
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 */
+	public void setTimeout(long timeoutMillis) {
+		if (timeoutMillis<0) throw new IllegalArgumentException("Timeout must be non-negative");
+		this.timeout=timeoutMillis;
+	}
+	
+	/**
+	 * Gets the default timeout for requests made by this connection instance
+	 * @return Timeout in milliseconds, or 0 if there is no timeout
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Sets a journal for this connection instance. Sequence numbers and transaction status
+	 * for the current Account will be recorded in the journal, and a journalled sequence number
+	 * is used in preference to querying the peer when the sequence number is not yet known.
+	 * 
+	 * A journal may be shared by multiple Convex instances.
+	 * 
+	 * @param journal Journal to use, or null to disable journalling
+	 */
+	public synchronized void setJournal(TransactionJournal journal) {
+		this.journal=journal;
+	}
+	
+	/**
+	 * Gets the journal used by this connection instance. May be null
+	 * @return Journal in use, or null if not set
+	 */
+	public TransactionJournal getJournal() {
+		return journal;
+	}
+
 	public synchronized void setAddress(Address address) {
 		if (this.address==address) return;
 		this.address=address;
@@ -213,7 +332,16 @@ public class Convex {
 	public Long querySequence() {
 		Address addr=getAddress();
 		Long seq = querySequence(addr);
-		if (seq!=null) updateSequence(seq);
+		if (seq!=null) {
+			updateSequence(seq);
+			if (journal!=null) {
+				try {
+					journal.recordSequence(addr, seq);
+				} catch (IOException e) {
+					throw Utils.sneakyThrow(e);
+				}
+			}
+		}
 		return seq;
 	}
 	
@@ -289,7 +417,17 @@ public class Convex {
 	 * @return Result of query, as Future for parsed JSON Object from query response
 	 */
 	public CompletableFuture<Map<String,Object>> queryAccountAsync(Address address) {
-		return doGetAsync(url+"/api/v1/accounts/"+address.longValue());
+		return queryAccountAsync(address,timeout);
+	}
+	
+	/**
+	 * Query account details on the network asynchronously, with a deadline.
+	 * @param address Address to query
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Result of query, as Future for parsed JSON Object from query response
+	 */
+	public CompletableFuture<Map<String,Object>> queryAccountAsync(Address address, long timeoutMillis) {
+		return toExceptional(doGetAsync(url+"/api/v1/accounts/"+address.longValue(),timeoutMillis));
 	}
 	
 	/**
@@ -307,58 +445,366 @@ public class Convex {
 	
 	/**
 	 * Asynchronously execute a transaction using the current Account. Requires
+	 * a valid key pair to be set up. The default timeout for this connection applies.
+	 * 
+	 * @param code Code to execute
+	 * @return Future for the transaction result.
+	 */
+	public CompletableFuture<Map<String,Object>> transactAsync(String code) {
+		return transactAsync(code,timeout);
+	}
+	
+	/**
+	 * Asynchronously execute a transaction using the current Account, with a deadline. Requires
 	 * a valid key pair to be set up.
 	 * 
+	 * The deadline covers both the prepare and submit steps. If it expires, or the returned future
+	 * is cancelled, the HTTP request in flight at the time is aborted.
+	 * 
 	 * @param code Code to execute
+	 * @param timeoutMillis Timeout for the whole transaction in milliseconds, or 0 for no timeout
 	 * @return Future for the transaction result.
 	 */
-	public synchronized CompletableFuture<Map<String,Object>> transactAsync(String code) {
+	public CompletableFuture<Map<String,Object>> transactAsync(String code, long timeoutMillis) {
+		return toExceptional(doTransactAsync(code,timeoutMillis));
+	}
+	
+	/**
+	 * Execute a transaction using the current Account, returning an Outcome rather than throwing
+	 * on failure. CVM errors, timeouts and network failures are all reported as error Outcomes.
+	 * 
+	 * @param code Code to execute
+	 * @return Outcome containing the transaction result value
+	 */
+	public Outcome<Object> transactOutcome(String code) {
+		return transactOutcomeAsync(code).join();
+	}
+	
+	/**
+	 * Asynchronously execute a transaction using the current Account, returning an Outcome. The
+	 * returned future never completes exceptionally unless cancelled by the caller.
+	 * 
+	 * @param code Code to execute
+	 * @return Future for the transaction Outcome
+	 */
+	public CompletableFuture<Outcome<Object>> transactOutcomeAsync(String code) {
+		return transactOutcomeAsync(code,timeout);
+	}
+	
+	/**
+	 * Asynchronously execute a transaction using the current Account with a deadline, returning an 
+	 * Outcome. The returned future never completes exceptionally unless cancelled by the caller.
+	 * 
+	 * @param code Code to execute
+	 * @param timeoutMillis Timeout for the whole transaction in milliseconds, or 0 for no timeout
+	 * @return Future for the transaction Outcome
+	 */
+	public CompletableFuture<Outcome<Object>> transactOutcomeAsync(String code, long timeoutMillis) {
+		return thenOutcome(doTransactAsync(code,timeoutMillis),Outcome::fromResult);
+	}
+	
+	/**
+	 * Runs the prepare and submit steps of a transaction. The result is an error Outcome if either
+	 * request fails or preparation is rejected, otherwise the parsed submit response.
+	 */
+	private synchronized CompletableFuture<Outcome<Map<String,Object>>> doTransactAsync(String code, long timeoutMillis) {
+		long deadline=System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		CompletableFuture<Outcome<Map<String,Object>>> result=new CompletableFuture<>();
+		AtomicReference<CompletableFuture<?>> inFlight=new AtomicReference<>();
+		
 		// first to prepare step
 		String json=buildJsonQuery(code);
-		CompletableFuture<Map<String,Object>> prep=doPostAsync(url+"/api/v1/transaction/prepare",json);
+		CompletableFuture<Outcome<Map<String,Object>>> prep=doPostAsync(url+"/api/v1/transaction/prepare",json,timeoutMillis);
+		inFlight.set(prep);
 		// then do submit step
-		return prep.thenCompose(r->{
+		prep.thenAccept(po->{
+			if (po.isError()) {
+				result.complete(po);
+				return;
+			}
+			Map<String,Object> r=po.getValue();
+			if (r==null) {
+				result.complete(Outcome.error(Outcome.FORMAT, "Null response from transaction prepare"));
+				return;
+			}
+			if (r.get("errorCode")!=null) {
+				result.complete(Outcome.fromResult(r).castError());
+				return;
+			}
+			Hash hash=Hash.fromHex((String) r.get("hash"));
+			if (hash==null) {
+				result.complete(Outcome.error(Outcome.FORMAT, "Transaction Hash not provided by server, got result: "+r));
+				return;
+			}
+			
+			Address addr;
+			AKeyPair kp;
+			Long txSeq;
 			synchronized( this) {
-				Map<String,Object> result=r;
-				if (r==null) {
-					throw new Error("Null response from transaction prepare!: "+r);
-				}
-				if (r.get("errorCode")!=null) {
-					throw new Error("Error while preparing transaction: "+r);
-				}
-				
 				// check the sequence number from the server
 				// if our own sequence number is lower, we want to update it!
 				Long seq=(Long)(r.get("sequence"));
 				if (seq!=null) updateSequence(seq);
-				
-				Hash hash=Hash.fromHex((String) result.get("hash"));
-				if (hash==null) throw new Error("Transaction Hash not provided by server, got result: "+r);
+				txSeq=seq;
+				addr=getAddress();
+				kp=getKeyPair();
+			}
+			
+			// sign outside the lock, so that concurrent transactions are not serialised on signing.
+			// The transaction is not journalled unless the peer gave its sequence number.
+			TransactionJournal j=journal;
+			if ((j!=null)&&(txSeq!=null)) {
 				try {
-					CompletableFuture<Map<String,Object>> tr = submitAsync(hash);
-					return tr;
-				} catch (Throwable e) {
-					throw Utils.sneakyThrow(e);
+					j.recordTransaction(addr, txSeq, hash, TransactionJournal.PREPARED);
+				} catch (IOException e) {
+					result.complete(Outcome.fromThrowable(e));
+					return;
 				}
 			}
+			ASignature sig=kp.sign(hash);
+			CompletableFuture<Outcome<Map<String,Object>>> tr = submitAsync(addr,kp,txSeq,hash,sig,remainingMillis(deadline,timeoutMillis));
+			inFlight.set(tr);
+			if (result.isDone()) tr.cancel(true);
+			tr.thenAccept(result::complete).exceptionally(e->{
+				result.completeExceptionally(e);
+				return null;
+			});
+		}).exceptionally(e->{
+			result.completeExceptionally(e);
+			return null;
+		});
+		
+		// cancellation of the result aborts whichever request is currently in flight
+		result.whenComplete((r,e)->{
+			if (e!=null) inFlight.get().cancel(true);
+		});
+		return result;
+	}
+	
+	/**
+	 * Gets the remaining time before a deadline, for use as the timeout of a subsequent request.
+	 * @param deadline Deadline as a System.nanoTime() value
+	 * @param timeoutMillis Original timeout, or 0 if there is no deadline
+	 * @return Remaining milliseconds (at least 1), or 0 if there is no deadline
+	 */
+	private static long remainingMillis(long deadline, long timeoutMillis) {
+		if (timeoutMillis<=0) return 0;
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime()));
+	}
+	
+	/**
+	 * Opens pooled connections to the peer ahead of time, so that DNS resolution, TCP connection
+	 * and TLS handshakes are not on the critical path of the first requests. Uses the maximum
+	 * number of connections per peer configured for the connection pool.
+	 * 
+	 * @return Future completed with the number of connections successfully warmed up
+	 */
+	public CompletableFuture<Integer> warmUp() {
+		return warmUp(maxConnectionsPerPeer);
+	}
+	
+	/**
+	 * Opens pooled connections to the peer ahead of time, so that DNS resolution, TCP connection
+	 * and TLS handshakes are not on the critical path of the first requests. 
+	 * 
+	 * Connections are opened by issuing n concurrent lightweight requests, which are returned to 
+	 * the pool for reuse when complete. At most the maximum number of connections per peer
+	 * configured for the connection pool can be opened.
+	 * 
+	 * @param n Number of connections to open
+	 * @return Future completed with the number of connections successfully warmed up
+	 */
+	public CompletableFuture<Integer> warmUp(int n) {
+		if (n<0) throw new IllegalArgumentException("Negative connection count: "+n);
+		n=Math.min(n, maxConnectionsPerPeer);
+		@SuppressWarnings("unchecked")
+		CompletableFuture<Boolean>[] fs=new CompletableFuture[n];
+		for (int i=0; i<n; i++) {
+			// any HTTP response, even an error status, means the connection is established
+			fs[i]=doRequest(new HttpHead(url),null,timeout,r->Boolean.TRUE).thenApply(o->!o.isError());
+		}
+		return CompletableFuture.allOf(fs).thenApply(v->{
+			int count=0;
+			for (CompletableFuture<Boolean> f: fs) {
+				if (f.join()) count++;
+			}
+			return count;
 		});
 	}
 	
 	/**
-	 * Asynchronously submit a transaction
-	 * @param hash
-	 * @return
+	 * Creates a Flow.Processor that executes a stream of transactions using the current Account,
+	 * emitting results in submission order. At most maxInFlight transactions will be outstanding at
+	 * any time, with demand propagated upstream as results are consumed.
+	 * 
+	 * @param maxInFlight Maximum number of transactions in flight or awaiting delivery
+	 * @return New TransactionProcessor instance
+	 */
+	public TransactionProcessor transactionProcessor(int maxInFlight) {
+		return new TransactionProcessor(this,maxInFlight);
+	}
+	
+	/**
+	 * Asynchronously prepare a transaction with a specific sequence number
+	 * @param code Source code in Convex Lisp
+	 * @param seq Sequence number for the transaction
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Future for the parsed prepare response
+	 */
+	CompletableFuture<Outcome<Map<String,Object>>> prepareAsync(String code, long seq, long timeoutMillis) {
+		HashMap<String,Object> req=new HashMap<>();
+		req.put("address", address.longValue());
+		req.put("source", code);
+		req.put("sequence", seq);
+		String json=JSON.toPrettyString(req);
+		return doPostAsync(url+"/api/v1/transaction/prepare",json,timeoutMillis);
+	}
+	
+	/**
+	 * Asynchronously submit a signed transaction, recording its status in the journal if set
+	 * @param addr Address of Account submitting the transaction
+	 * @param kp Key pair used to sign the transaction
+	 * @param seq Sequence number of the transaction, or null if unknown (not journalled)
+	 * @param hash Hash of the prepared transaction
+	 * @param sig Signature of the hash
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Future for the parsed submit response
 	 */
-	private CompletableFuture<Map<String,Object>> submitAsync(Hash hash) {
-		ASignature sd=getKeyPair().sign(hash);
+	CompletableFuture<Outcome<Map<String,Object>>> submitAsync(Address addr, AKeyPair kp, Long seq, Hash hash, ASignature sig, long timeoutMillis) {
+		TransactionJournal j=(seq!=null)?journal:null;
+		if (j!=null) {
+			try {
+				j.recordTransaction(addr, seq, hash, TransactionJournal.SUBMITTED);
+			} catch (IOException e) {
+				return CompletableFuture.completedFuture(Outcome.fromThrowable(e));
+			}
+		}
 		HashMap<String,Object> req=new HashMap<>();
-		req.put("address", getAddress().longValue());
+		req.put("address", addr.longValue());
 		req.put("hash", hash.toHexString());
-		req.put("accountKey", getKeyPair().getAccountKey().toHexString());
-		req.put("sig", sd.toHexString());
+		req.put("accountKey", kp.getAccountKey().toHexString());
+		req.put("sig", sig.toHexString());
 		String json=JSON.toPrettyString(req);
 		// System.out.println("Submitting:\n "+json);
-		return doPostAsync(url+"/api/v1/transaction/submit",json);
+		CompletableFuture<Outcome<Map<String,Object>>> tr=doPostAsync(url+"/api/v1/transaction/submit",json,timeoutMillis);
+		
+		// the transaction may have changed state observed by cached queries
+		QueryCache cache=queryCache;
+		if (cache!=null) tr.whenComplete((r,e)->cache.invalidateUnstable());
+		if (j==null) return tr;
+		
+		// a failed request leaves the transaction as SUBMITTED, since its outcome is unknown
+		return thenOutcome(tr,sr->{
+			byte status=journalStatus(sr);
+			try {
+				j.recordTransaction(addr, seq, hash, status);
+			} catch (IOException e) {
+				return Outcome.fromThrowable(e);
+			}
+			return Outcome.of(sr);
+		});
+	}
+	
+	/**
+	 * Gets the journal status for a submit response
+	 */
+	private static byte journalStatus(Map<String,Object> sr) {
+		// no result, so the outcome remains unknown
+		if (sr==null) return TransactionJournal.SUBMITTED;
+		Object code=sr.get("errorCode");
+		if (code==null) return TransactionJournal.COMPLETED;
+		
+		// these errors are reported before execution, so the sequence number is not consumed
+		if ("SEQUENCE".equals(code)||"SIGNATURE".equals(code)) return TransactionJournal.REJECTED;
+		return TransactionJournal.FAILED;
+	}
+	
+	/**
+	 * Reserves a block of sequence numbers for the current Account, for transactions that are 
+	 * prepared ahead of submission. If the current sequence number is unknown, it is taken from 
+	 * the journal if set, otherwise queried from the peer without holding the lock.
+	 * 
+	 * @param n Number of sequence numbers to reserve
+	 * @param timeoutMillis Timeout in milliseconds for any query, or 0 for no timeout
+	 * @return Future for an Outcome with the sequence number preceding the reserved block
+	 */
+	CompletableFuture<Outcome<Long>> reserveSequenceAsync(int n, long timeoutMillis) {
+		Address addr;
+		synchronized(this) {
+			if (address==null) throw new IllegalStateException("Can't reserve sequence numbers because current Address is null");
+			if ((sequence==null)&&(journal!=null)) {
+				sequence=journal.getSequence(address);
+			}
+			if (sequence!=null) {
+				long base=sequence;
+				sequence=base+n;
+				return CompletableFuture.completedFuture(Outcome.of(base));
+			}
+			addr=address;
+		}
+		return thenOutcome(doGetAsync(url+"/api/v1/accounts/"+addr.longValue(),timeoutMillis),r->{
+			if (r.get("errorCode")!=null) return Outcome.fromResult(r).castError();
+			Long seq=(Long)r.get("sequence");
+			if (seq==null) return Outcome.error(Outcome.FORMAT, "Sequence number not provided by server, got result: "+r);
+			long base;
+			synchronized(this) {
+				// another reservation may have completed while querying
+				base=updateSequence(seq);
+				sequence=base+n;
+			}
+			return Outcome.of(base);
+		});
+	}
+	
+	/**
+	 * Clears the current sequence number, so that it will be queried again when next required
+	 */
+	synchronized void clearSequence() {
+		sequence=null;
+	}
+	
+	/**
+	 * Creates a watcher for Accounts and token holdings, polling with default intervals of 1 second
+	 * minimum and 30 seconds maximum. The watcher should be closed when no longer required.
+	 * 
+	 * @return New AccountWatcher instance
+	 */
+	public AccountWatcher accountWatcher() {
+		return accountWatcher(1000,30000);
+	}
+	
+	/**
+	 * Creates a watcher for Accounts and token holdings. Each watched value is polled at the 
+	 * minimum interval until it remains unchanged, then backs off towards the maximum interval. 
+	 * The watcher should be closed when no longer required.
+	 * 
+	 * @param minIntervalMillis Minimum polling interval in milliseconds
+	 * @param maxIntervalMillis Maximum polling interval in milliseconds
+	 * @return New AccountWatcher instance
+	 */
+	public AccountWatcher accountWatcher(long minIntervalMillis, long maxIntervalMillis) {
+		return new AccountWatcher(this,minIntervalMillis,maxIntervalMillis);
+	}
+	
+	/**
+	 * Creates a queue for preparing and signing transactions for the current Account ahead of 
+	 * submission. Signing uses the common fork-join pool.
+	 * 
+	 * @return New PresignedQueue instance
+	 */
+	public PresignedQueue presignedQueue() {
+		return new PresignedQueue(this,ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * Creates a queue for preparing and signing transactions for the current Account ahead of 
+	 * submission. 
+	 * 
+	 * @param pool Fork-join pool used to sign transactions in parallel
+	 * @return New PresignedQueue instance
+	 */
+	public PresignedQueue presignedQueue(ForkJoinPool pool) {
+		return new PresignedQueue(this,pool);
 	}
 
 	/**
@@ -367,13 +813,169 @@ public class Convex {
 	 * @return Future to be completed with result of query, as parsed JSON Object from query response
 	 */
 	public CompletableFuture<Map<String,Object>> queryAsync(String code) {
+		return queryAsync(code,timeout);
+	}
+	
+	/**
+	 * Query using specific source code, with a deadline. If the deadline expires, or the returned 
+	 * future is cancelled, the HTTP request is aborted.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Future to be completed with result of query, as parsed JSON Object from query response
+	 */
+	public CompletableFuture<Map<String,Object>> queryAsync(String code, long timeoutMillis) {
+		String json=buildJsonQuery(code);
+		return toExceptional(doPostAsync(url+"/api/v1/query",json,timeoutMillis));
+	}
+	
+	/**
+	 * Query using specific source code, returning an Outcome rather than throwing on failure.
+	 * CVM errors, timeouts and network failures are all reported as error Outcomes.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @return Outcome containing the query result value
+	 */
+	public Outcome<Object> queryOutcome(String code) {
+		return queryOutcomeAsync(code).join();
+	}
+	
+	/**
+	 * Query using specific source code, returning an Outcome. The returned future never completes
+	 * exceptionally unless cancelled by the caller.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<Object>> queryOutcomeAsync(String code) {
+		return queryOutcomeAsync(code,timeout);
+	}
+	
+	/**
+	 * Query using specific source code with a deadline, returning an Outcome. The returned future 
+	 * never completes exceptionally unless cancelled by the caller.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<Object>> queryOutcomeAsync(String code, long timeoutMillis) {
 		String json=buildJsonQuery(code);
-		return doPostAsync(url+"/api/v1/query",json);
+		return thenOutcome(doPostAsync(url+"/api/v1/query",json,timeoutMillis),Outcome::fromResult);
+	}
+	
+	/**
+	 * Query returning one integer value per Address, e.g. balances, decoding the result directly 
+	 * into an AddressLongMap. The query result must be a vector with one integer or nil for each
+	 * of the given Addresses, in order. Entries with nil values are omitted.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param addresses Long values of Addresses corresponding to each value in the result
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<AddressLongMap>> queryAddressLongMapAsync(String code, long[] addresses) {
+		return queryAddressLongMapAsync(code,addresses,timeout);
+	}
+	
+	/**
+	 * Query returning one integer value per Address with a deadline. See 
+	 * queryAddressLongMapAsync(String, long[]) for details.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param addresses Long values of Addresses corresponding to each value in the result, or null
+	 * for a result of [address value] pairs
+	 * @param timeoutMillis Timeout in milliseconds, or 0 for no timeout
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<AddressLongMap>> queryAddressLongMapAsync(String code, long[] addresses, long timeoutMillis) {
+		String json=buildJsonQuery(code);
+		return thenOutcome(doRequest(new HttpPost(url+"/api/v1/query"),json,timeoutMillis,r->AddressLongDecoder.decode(r.getEntity().getContent(),addresses)),o->o);
+	}
+	
+	/**
+	 * Query returning integer values for Addresses, decoding the result directly into an 
+	 * AddressLongMap. The query result must be a vector of [address value] pairs. Entries with nil
+	 * values are omitted.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<AddressLongMap>> queryAddressLongMapAsync(String code) {
+		return queryAddressLongMapAsync(code,null);
+	}
+	
+	/**
+	 * Query using specific source code, reusing a cached result if permitted by the cache policy.
+	 * The query is sent to the peer as normal if no query cache is set.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param policy Cache policy for the query, or null to bypass the cache
+	 * @return Result of query, as parsed JSON Object from query response
+	 */
+	public Map<String,Object> query(String code, CachePolicy policy) {
+		try {
+			return queryAsync(code,policy).get();
+		} catch (Throwable  e) {
+			throw Utils.sneakyThrow(e);
+		}
+	}
+	
+	/**
+	 * Query using specific source code, reusing a cached result if permitted by the cache policy.
+	 * The query is sent to the peer as normal if no query cache is set.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param policy Cache policy for the query, or null to bypass the cache
+	 * @return Future to be completed with result of query, as parsed JSON Object from query response
+	 */
+	public CompletableFuture<Map<String,Object>> queryAsync(String code, CachePolicy policy) {
+		QueryCache cache=queryCache;
+		if ((cache==null)||(policy==null)) return queryAsync(code);
+		// copied, since the cached response is shared
+		return toExceptional(thenOutcome(cachedQueryAsync(cache,code,policy),r->Outcome.of(new HashMap<>(r))));
+	}
+	
+	/**
+	 * Query using specific source code, returning an Outcome and reusing a cached result if 
+	 * permitted by the cache policy. The query is sent to the peer as normal if no query cache is 
+	 * set. Error Outcomes are never cached.
+	 * 
+	 * @param code Source code in Convex Lisp
+	 * @param policy Cache policy for the query, or null to bypass the cache
+	 * @return Future for the query Outcome
+	 */
+	public CompletableFuture<Outcome<Object>> queryOutcomeAsync(String code, CachePolicy policy) {
+		QueryCache cache=queryCache;
+		if ((cache==null)||(policy==null)) return queryOutcomeAsync(code);
+		return thenOutcome(cachedQueryAsync(cache,code,policy),Outcome::fromResult);
+	}
+	
+	private CompletableFuture<Outcome<Map<String,Object>>> cachedQueryAsync(QueryCache cache, String code, CachePolicy policy) {
+		return cache.get(url,address,code,policy,()->doPostAsync(url+"/api/v1/query",buildJsonQuery(code),timeout));
+	}
+	
+	/**
+	 * Sets the cache used for queries with a CachePolicy. Queries without a policy are never cached.
+	 * Non-stable results in the cache are discarded whenever a transaction submitted by this 
+	 * connection completes.
+	 * 
+	 * @param cache Query cache, or null to disable caching
+	 */
+	public void setQueryCache(QueryCache cache) {
+		this.queryCache=cache;
+	}
+	
+	/**
+	 * Gets the cache used for queries with a CachePolicy
+	 * @return Query cache, or null if not set
+	 */
+	public QueryCache getQueryCache() {
+		return queryCache;
 	}
 	
 	private String buildJsonQuery(String code) {
 		HashMap<String,Object> req=new HashMap<>();
-		req.put("address", address.longValue());
+		if (address!=null) req.put("address", address.longValue());
 		req.put("source", code);
 		String json=JSON.toPrettyString(req);
 		return json;
@@ -381,7 +983,7 @@ public class Convex {
 	
 	private Map<String,Object> doPost(String endPoint, String json) {
 		try {
-			return doPostAsync(endPoint,json).get();
+			return toExceptional(doPostAsync(endPoint,json,timeout)).get();
 		} catch (Throwable  e) {
 			throw Utils.sneakyThrow(e);
 		}
@@ -389,23 +991,32 @@ public class Convex {
 	
 	private Map<String,Object> doGet(String endPoint) {
 		try {
-			return doGetAsync(endPoint).get();
+			return toExceptional(doGetAsync(endPoint,timeout)).get();
 		} catch (Throwable  e) {
 			throw Utils.sneakyThrow(e);
 		}
 	}
 	
-	private CompletableFuture<Map<String,Object>> doPostAsync(String endPoint, String json) {
+	private CompletableFuture<Outcome<Map<String,Object>>> doPostAsync(String endPoint, String json, long timeoutMillis) {
 		HttpPost post=new HttpPost(endPoint);
-		return doRequest(post,json);
+		return doRequest(post,json,timeoutMillis,Convex::parseResponse);
 	}
 	
-	private CompletableFuture<Map<String,Object>> doGetAsync(String endPoint) {
+	private CompletableFuture<Outcome<Map<String,Object>>> doGetAsync(String endPoint, long timeoutMillis) {
 		HttpGet post=new HttpGet(endPoint);
-		return doRequest(post,null);
+		return doRequest(post,null,timeoutMillis,Convex::parseResponse);
+	}
+	
+	private static Map<String,Object> parseResponse(HttpResponse response) throws IOException {
+		return JSON.parse(response.getEntity().getContent());
 	}
 	
-	private CompletableFuture<Map<String,Object>> doRequest(HttpUriRequest request, String json) {
+	/**
+	 * Executes a HTTP request. The returned future is always completed with an Outcome, with 
+	 * failures such as timeouts reported as error Outcomes rather than exceptions. Cancelling the 
+	 * future or reaching the timeout aborts the exchange.
+	 */
+	private <T> CompletableFuture<Outcome<T>> doRequest(HttpRequestBase request, String json, long timeoutMillis, ResponseHandler<T> handler) {
 		try {
 			if (json!=null) {
 				request.addHeader("content-type", "application/json");
@@ -413,41 +1024,99 @@ public class Convex {
 				entity = new StringEntity(json);
 				((HttpPost)request).setEntity(entity);
 			}
-			CompletableFuture<HttpResponse> future=toCompletableFuture(fc -> httpasyncclient.execute(request, (FutureCallback<HttpResponse>) fc));
-			return future.thenApply(response->{
-				try {
-					return JSON.parse(response.getEntity().getContent());
-				} catch (Throwable e) {
-					throw new Error("Error handling response:" +response,e);
+			if (timeoutMillis>0) {
+				int t=(int)Math.min(timeoutMillis, Integer.MAX_VALUE);
+				request.setConfig(RequestConfig.custom().setConnectionRequestTimeout(t).setConnectTimeout(t).setSocketTimeout(t).build());
+			}
+			CompletableFuture<Outcome<T>> result=new CompletableFuture<>();
+			Future<HttpResponse> exchange=getHttpClient().execute(request, toCallback(result,handler));
+			
+			// abort the exchange if the result is cancelled or times out, so the pooled connection is freed
+			result.whenComplete((r,e)->{
+				if ((e!=null)||r.isError()) {
+					exchange.cancel(true);
+					request.abort();
 				}
 			});
-			
+			if (timeoutMillis>0) result.completeOnTimeout(Outcome.timeout(), timeoutMillis, TimeUnit.MILLISECONDS);
+			return result;
 		} catch (Throwable e) {
 			throw Utils.sneakyThrow(e);
 		}
 	}
 	
-	private static <T> CompletableFuture<T> toCompletableFuture(Consumer<FutureCallback<T>> c) {
-        CompletableFuture<T> promise = new CompletableFuture<>();
-
-        c.accept(new FutureCallback<T>() {
+	/**
+	 * Handler for a completed HTTP response
+	 * @param <T> Type of result
+	 */
+	@FunctionalInterface
+	private interface ResponseHandler<T> {
+		T handle(HttpResponse response) throws Exception;
+	}
+	
+	private static <T> FutureCallback<HttpResponse> toCallback(CompletableFuture<Outcome<T>> promise, ResponseHandler<T> handler) {
+        return new FutureCallback<HttpResponse>() {
             @Override
-            public void completed(T t) {
-                promise.complete(t);
+            public void completed(HttpResponse response) {
+                T value;
+                try {
+                    value=handler.handle(response);
+                } catch (Throwable e) {
+                    int status=response.getStatusLine().getStatusCode();
+                    if (status>=400) {
+                        promise.complete(Outcome.error(Outcome.HTTP, "HTTP status "+status));
+                    } else {
+                        promise.complete(Outcome.fromThrowable(e));
+                    }
+                    return;
+                }
+                promise.complete(Outcome.of(value));
             }
 
             @Override
             public void failed(Exception e) {
-                promise.completeExceptionally(e);
+                promise.complete(Outcome.fromThrowable(e));
             }
 
             @Override
             public void cancelled() {
-                promise.cancel(true);
+                promise.complete(Outcome.cancelled());
             }
-        });
-        return promise;
+        };
     }
+	
+	/**
+	 * Adapts a future for an Outcome to the exception-based API, completing exceptionally for
+	 * error Outcomes. Cancellation of the returned future is propagated to the source.
+	 */
+	private static <T> CompletableFuture<T> toExceptional(CompletableFuture<Outcome<T>> source) {
+		CompletableFuture<T> result=new CompletableFuture<>();
+		source.whenComplete((o,e)->{
+			if (e!=null) {
+				result.completeExceptionally(e);
+			} else if (o.isError()) {
+				result.completeExceptionally(o.toException());
+			} else {
+				result.complete(o.getValue());
+			}
+		});
+		result.whenComplete((r,e)->{
+			if (e!=null) source.cancel(true);
+		});
+		return result;
+	}
+	
+	/**
+	 * Applies a function to a successful Outcome, passing errors through. Cancellation of the 
+	 * returned future is propagated to the source.
+	 */
+	private static <A,B> CompletableFuture<Outcome<B>> thenOutcome(CompletableFuture<Outcome<A>> source, Function<A,Outcome<B>> f) {
+		CompletableFuture<Outcome<B>> result=source.thenApply(o->o.isError()?o.<B>castError():f.apply(o.getValue()));
+		result.whenComplete((r,e)->{
+			if (e!=null) source.cancel(true);
+		});
+		return result;
+	}
 
 
 
@@ -0,0 +1,217 @@
+package convex.java;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Value representing the outcome of a client operation: either a successful value, or an error
+ * with an error code and message.
+ *
+ * Expected failures (CVM errors reported by the peer, timeouts, cancellation, network failures)
+ * are returned as Outcome values rather than thrown, so handling them costs no stack trace
+ * capture or exception unwinding. Error codes reported by the peer, e.g. "SEQUENCE" or "FUNDS",
+ * are passed through unchanged. Failures detected by the client use the codes defined here.
+ *
+ * @param <T> Type of successful value
+ */
+public final class Outcome<T> {
+	/**
+	 * Error code for an operation that did not complete before its deadline
+	 */
+	public static final String TIMEOUT="TIMEOUT";
+
+	/**
+	 * Error code for an operation that was cancelled
+	 */
+	public static final String CANCELLED="CANCELLED";
+
+	/**
+	 * Error code for a failure to communicate with the peer
+	 */
+	public static final String IO="IO";
+
+	/**
+	 * Error code for a response from the peer that could not be understood
+	 */
+	public static final String FORMAT="FORMAT";
+
+	/**
+	 * Error code for an HTTP error status from the peer without a valid result
+	 */
+	public static final String HTTP="HTTP";
+
+	private static final Outcome<?> TIMED_OUT=new Outcome<>(null,TIMEOUT,"Request timed out",null);
+	private static final Outcome<?> WAS_CANCELLED=new Outcome<>(null,CANCELLED,"Request cancelled",null);
+
+	private final T value;
+	private final String errorCode;
+	private final Object message;
+	private final Throwable cause;
+
+	private Outcome(T value, String errorCode, Object message, Throwable cause) {
+		this.value=value;
+		this.errorCode=errorCode;
+		this.message=message;
+		this.cause=cause;
+	}
+
+	/**
+	 * Creates a successful Outcome
+	 * @param <T> Type of value
+	 * @param value Value, may be null
+	 * @return Outcome instance
+	 */
+	public static <T> Outcome<T> of(T value) {
+		return new Outcome<>(value,null,null,null);
+	}
+
+	/**
+	 * Creates an error Outcome
+	 * @param <T> Type of successful value
+	 * @param errorCode Error code
+	 * @param message Error message or value, may be null
+	 * @return Outcome instance
+	 */
+	public static <T> Outcome<T> error(String errorCode, Object message) {
+		if (errorCode==null) throw new IllegalArgumentException("Error code required");
+		return new Outcome<>(null,errorCode,message,null);
+	}
+
+	/**
+	 * Gets the shared Outcome for a timeout
+	 * @param <T> Type of successful value
+	 * @return Outcome instance
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Outcome<T> timeout() {
+		return (Outcome<T>) TIMED_OUT;
+	}
+
+	/**
+	 * Gets the shared Outcome for a cancellation
+	 * @param <T> Type of successful value
+	 * @return Outcome instance
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Outcome<T> cancelled() {
+		return (Outcome<T>) WAS_CANCELLED;
+	}
+
+	/**
+	 * Creates an Outcome for a failure that was already reported as an exception, e.g. by the
+	 * HTTP client. The exception is retained for the exception-based API.
+	 *
+	 * @param <T> Type of successful value
+	 * @param e Exception
+	 * @return Outcome instance
+	 */
+	public static <T> Outcome<T> fromThrowable(Throwable e) {
+		while (((e instanceof CompletionException)||(e instanceof ExecutionException))&&(e.getCause()!=null)) {
+			e=e.getCause();
+		}
+		if ((e instanceof TimeoutException)||(e instanceof InterruptedIOException)) return timeout();
+		if (e instanceof CancellationException) return cancelled();
+		if (e instanceof ClientException) {
+			ClientException ce=(ClientException)e;
+			String code=(ce.getErrorCode()!=null)?ce.getErrorCode():FORMAT;
+			return new Outcome<>(null,code,ce.getMessage(),e);
+		}
+		String code=(e instanceof IOException)?IO:FORMAT;
+		return new Outcome<>(null,code,e.getMessage(),e);
+	}
+
+	/**
+	 * Creates an Outcome from a parsed JSON result returned by the peer. If the result contains an
+	 * "errorCode", the Outcome is an error with the result "value" as its message. Otherwise the
+	 * Outcome contains the result "value".
+	 *
+	 * @param result Parsed JSON result
+	 * @return Outcome instance
+	 */
+	public static Outcome<Object> fromResult(Map<String,Object> result) {
+		if (result==null) return error(FORMAT,"Null result");
+		Object code=result.get("errorCode");
+		if (code!=null) return error(code.toString(),result.get("value"));
+		return of(result.get("value"));
+	}
+
+	/**
+	 * Checks if this Outcome is an error
+	 * @return true if error, false if successful
+	 */
+	public boolean isError() {
+		return errorCode!=null;
+	}
+
+	/**
+	 * Gets the value of a successful Outcome
+	 * @return Value, or null if this Outcome is an error
+	 */
+	public T getValue() {
+		return value;
+	}
+
+	/**
+	 * Gets the error code of this Outcome
+	 * @return Error code, or null if successful
+	 */
+	public String getErrorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * Gets the error message of this Outcome. For CVM errors this is the error value returned by
+	 * the peer.
+	 *
+	 * @return Error message, or null if successful
+	 */
+	public Object getMessage() {
+		return message;
+	}
+
+	/**
+	 * Applies a function to the value of a successful Outcome. Errors are passed through.
+	 * @param <R> Type of new value
+	 * @param f Function to apply
+	 * @return Updated Outcome
+	 */
+	public <R> Outcome<R> map(Function<? super T,? extends R> f) {
+		if (isError()) return castError();
+		return of(f.apply(value));
+	}
+
+	/**
+	 * Gets this error Outcome as an Outcome of a different type
+	 * @param <R> Type of successful value
+	 * @return This Outcome
+	 */
+	@SuppressWarnings("unchecked")
+	public <R> Outcome<R> castError() {
+		if (!isError()) throw new IllegalStateException("Not an error: "+this);
+		return (Outcome<R>) this;
+	}
+
+	/**
+	 * Converts this error Outcome to an exception, for use by the exception-based API
+	 * @return Exception representing this error
+	 */
+	public Throwable toException() {
+		if (!isError()) throw new IllegalStateException("Not an error: "+this);
+		if (cause!=null) return cause;
+		if (this==TIMED_OUT) return new TimeoutException(String.valueOf(message));
+		if (this==WAS_CANCELLED) return new CancellationException(String.valueOf(message));
+		return new ClientException(errorCode,String.valueOf(message));
+	}
+
+	@Override
+	public String toString() {
+		if (isError()) return "Error "+errorCode+": "+message;
+		return "Value: "+value;
+	}
+}
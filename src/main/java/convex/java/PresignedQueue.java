@@ -0,0 +1,196 @@
+package convex.java;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import convex.core.crypto.AKeyPair;
+import convex.core.crypto.ASignature;
+import convex.core.data.Address;
+import convex.core.data.Hash;
+
+/**
+ * Queue of transactions that are prepared and signed ahead of submission, for bursts of
+ * transactions from a single Account.
+ *
+ * prepareAsync(...) reserves a block of consecutive sequence numbers, prepares all transactions
+ * with the peer concurrently, then signs the whole batch in parallel on a fork-join pool. Signed
+ * transactions wait in the queue until flush() submits them.
+ *
+ * Submission is strictly in sequence order: each transaction is submitted once the peer has
+ * returned the result of the previous one, since a transaction that reaches the peer before its
+ * predecessor would be rejected. The round trips saved are those of preparing and signing.
+ *
+ * Other transactions for the same Account should not be executed while a batch is queued, since
+ * they would conflict with the reserved sequence numbers.
+ *
+ * This class is thread safe.
+ */
+public class PresignedQueue {
+	private final Convex convex;
+	private final ForkJoinPool pool;
+	private final ArrayDeque<Signed> queue=new ArrayDeque<>();
+
+	private static final Outcome<Object> NOT_SUBMITTED=Outcome.error(Outcome.CANCELLED, "Not submitted after failure of an earlier transaction");
+
+	/**
+	 * A prepared and signed transaction awaiting submission
+	 */
+	private static final class Signed {
+		final Address address;
+		final AKeyPair keyPair;
+		final long sequence;
+		final Hash hash;
+		final ASignature sig;
+
+		Signed(Address address, AKeyPair keyPair, long sequence, Hash hash, ASignature sig) {
+			this.address=address;
+			this.keyPair=keyPair;
+			this.sequence=sequence;
+			this.hash=hash;
+			this.sig=sig;
+		}
+	}
+
+	PresignedQueue(Convex convex, ForkJoinPool pool) {
+		this.convex=convex;
+		this.pool=pool;
+	}
+
+	/**
+	 * Prepares and signs a batch of transactions, adding them to this queue. Transactions are given
+	 * consecutive sequence numbers in the order supplied.
+	 *
+	 * If any transaction cannot be prepared, no transactions from the batch are queued and the
+	 * Outcome is the first error encountered.
+	 *
+	 * @param sources Convex Lisp source for each transaction
+	 * @return Future for an Outcome with the number of transactions queued
+	 */
+	public CompletableFuture<Outcome<Integer>> prepareAsync(List<String> sources) {
+		int n=sources.size();
+		if (n==0) return CompletableFuture.completedFuture(Outcome.of(0));
+		Address address=convex.getAddress();
+		AKeyPair kp=convex.getKeyPair();
+		if ((address==null)||(kp==null)) throw new IllegalStateException("Address and key pair required to prepare transactions");
+
+		long timeout=convex.getTimeout();
+		return convex.reserveSequenceAsync(n,timeout).thenCompose(ro->{
+			if (ro.isError()) return CompletableFuture.completedFuture(ro.castError());
+			return prepareAsync(sources,address,kp,ro.getValue(),timeout);
+		});
+	}
+
+	private CompletableFuture<Outcome<Integer>> prepareAsync(List<String> sources, Address address, AKeyPair kp, long base, long timeout) {
+		int n=sources.size();
+		ArrayList<CompletableFuture<Outcome<Map<String,Object>>>> preps=new ArrayList<>(n);
+		for (int i=0; i<n; i++) {
+			preps.add(convex.prepareAsync(sources.get(i), base+i+1, timeout));
+		}
+
+		return CompletableFuture.allOf(preps.toArray(new CompletableFuture[n])).thenComposeAsync(v->{
+			ArrayList<Hash> hashes=new ArrayList<>(n);
+			for (CompletableFuture<Outcome<Map<String,Object>>> f: preps) {
+				Outcome<Object> error=checkPrepared(f.join());
+				if (error!=null) {
+					// reserved sequence numbers will not be used, so we no longer know the sequence
+					convex.clearSequence();
+					return CompletableFuture.completedFuture(error.castError());
+				}
+				hashes.add(Hash.fromHex((String)f.join().getValue().get("hash")));
+			}
+
+			// running as a task in the pool, so the parallel stream splits work across the same pool
+			List<ASignature> sigs=hashes.parallelStream().map(kp::sign).collect(Collectors.toList());
+
+			TransactionJournal j=convex.getJournal();
+			ArrayList<Signed> batch=new ArrayList<>(n);
+			for (int i=0; i<n; i++) {
+				Signed st=new Signed(address,kp,base+i+1,hashes.get(i),sigs.get(i));
+				if (j!=null) {
+					try {
+						j.recordTransaction(address, st.sequence, st.hash, TransactionJournal.PREPARED);
+					} catch (IOException e) {
+						return CompletableFuture.completedFuture(Outcome.fromThrowable(e));
+					}
+				}
+				batch.add(st);
+			}
+			synchronized(this) {
+				queue.addAll(batch);
+			}
+			return CompletableFuture.completedFuture(Outcome.of(n));
+		},pool);
+	}
+
+	private static Outcome<Object> checkPrepared(Outcome<Map<String,Object>> o) {
+		if (o.isError()) return o.castError();
+		Map<String,Object> r=o.getValue();
+		if (r==null) return Outcome.error(Outcome.FORMAT, "Null response from transaction prepare");
+		if (r.get("errorCode")!=null) return Outcome.fromResult(r);
+		if (Hash.fromHex((String)r.get("hash"))==null) return Outcome.error(Outcome.FORMAT, "Transaction Hash not provided by server, got result: "+r);
+		return null;
+	}
+
+	/**
+	 * Gets the number of signed transactions awaiting submission
+	 * @return Number of queued transactions
+	 */
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	/**
+	 * Submits all queued transactions to the peer one at a time, in sequence order. The queue is
+	 * empty once this method returns.
+	 *
+	 * If any transaction fails, including with a CVM error, later transactions are not submitted
+	 * and have a CANCELLED Outcome. The sequence number of the Account is then cleared, so that it
+	 * is queried from the peer when next required.
+	 *
+	 * @return Future for the Outcomes of each transaction, in sequence order
+	 */
+	public CompletableFuture<List<Outcome<Object>>> flush() {
+		ArrayList<Signed> batch;
+		synchronized(this) {
+			batch=new ArrayList<>(queue);
+			queue.clear();
+		}
+		// batches prepared concurrently may have been queued out of order
+		batch.sort((a,b)->Long.compare(a.sequence, b.sequence));
+		CompletableFuture<List<Outcome<Object>>> result=new CompletableFuture<>();
+		submitNext(batch,new ArrayList<>(batch.size()),convex.getTimeout(),result);
+		return result;
+	}
+
+	private void submitNext(List<Signed> batch, List<Outcome<Object>> results, long timeout, CompletableFuture<List<Outcome<Object>>> result) {
+		int i=results.size();
+		if (i==batch.size()) {
+			result.complete(results);
+			return;
+		}
+		Signed st=batch.get(i);
+		convex.submitAsync(st.address, st.keyPair, st.sequence, st.hash, st.sig, timeout).whenComplete((o,e)->{
+			Outcome<Object> r;
+			if (e!=null) {
+				r=Outcome.fromThrowable(e);
+			} else {
+				r=o.isError()?o.castError():Outcome.fromResult(o.getValue());
+			}
+			results.add(r);
+			if (r.isError()) {
+				// later transactions can't be valid, and our sequence number may be wrong
+				convex.clearSequence();
+				while (results.size()<batch.size()) {
+					results.add(NOT_SUBMITTED);
+				}
+			}
+			submitNext(batch,results,timeout,result);
+		});
+	}
+}
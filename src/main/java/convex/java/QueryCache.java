@@ -0,0 +1,322 @@
+package convex.java;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import convex.core.data.Address;
+
+/**
+ * LRU cache for results of read-only queries, used by Convex for queries with a CachePolicy.
+ *
+ * Query responses are keyed by the peer URL, the querying Address and the query source,
+ * normalised so that differences in whitespace, commas and comments do not prevent reuse.
+ * Concurrent requests for the same query share a single request to the peer. Only successful
+ * responses are cached: errors, including CVM errors, are always fetched again.
+ *
+ * The cache is bounded both by number of entries and by an estimate of the heap used by cached
+ * results. The least recently used entries are evicted first. The estimate is approximate, but
+ * stable enough to size the cache and to monitor with getEstimatedBytes().
+ *
+ * A cache may be shared by several Convex instances, including instances connected to different
+ * peers. This class is thread safe.
+ */
+public class QueryCache {
+	/**
+	 * Estimated fixed heap cost of a cache entry, including key, future and Outcome objects
+	 */
+	static final long ENTRY_OVERHEAD=160;
+
+	private final int maxEntries;
+	private final long maxBytes;
+	private final long defaultTTL;
+
+	// access-ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String,Entry> entries=new LinkedHashMap<>(16,0.75f,true);
+	private long bytes=0;
+	private long hits=0;
+	private long misses=0;
+	private long evictions=0;
+
+	private static final class Entry {
+		final String key;
+		final String scope;
+		final boolean stable;
+		final long expiry;
+		final CompletableFuture<Outcome<Map<String,Object>>> result=new CompletableFuture<>();
+		long size;
+
+		Entry(String key, CachePolicy policy, long expiry) {
+			this.key=key;
+			this.scope=policy.getScope();
+			this.stable=policy.isStable();
+			this.expiry=expiry;
+			this.size=ENTRY_OVERHEAD+2L*key.length();
+		}
+	}
+
+	/**
+	 * Creates a query cache
+	 * @param maxEntries Maximum number of cached results
+	 * @param maxBytes Maximum estimated heap size of cached results in bytes
+	 * @param defaultTTLMillis Time to live for results with a policy that does not specify one
+	 */
+	public QueryCache(int maxEntries, long maxBytes, long defaultTTLMillis) {
+		if ((maxEntries<1)||(maxBytes<1)||(defaultTTLMillis<1)) throw new IllegalArgumentException("Invalid cache bounds: "+maxEntries+" entries, "+maxBytes+" bytes, TTL "+defaultTTLMillis);
+		this.maxEntries=maxEntries;
+		this.maxBytes=maxBytes;
+		this.defaultTTL=defaultTTLMillis;
+	}
+
+	/**
+	 * Gets a cached query response, or loads it if not cached or expired. Callers must not modify
+	 * the response, which may be shared.
+	 * @param url Peer URL
+	 * @param address Address used for the query, may be null
+	 * @param code Query source
+	 * @param policy Cache policy for the query
+	 * @param loader Supplier that executes the query, giving the parsed query response
+	 * @return Future for the query response. Cancelling it does not affect other callers.
+	 */
+	CompletableFuture<Outcome<Map<String,Object>>> get(String url, Address address, String code, CachePolicy policy, Supplier<CompletableFuture<Outcome<Map<String,Object>>>> loader) {
+		String key=key(url,address,code);
+		long now=System.nanoTime();
+		Entry e;
+		synchronized(this) {
+			e=entries.get(key);
+			if ((e!=null)&&(e.expiry-now>0)) {
+				hits++;
+				return e.result.thenApply(o->o);
+			}
+			misses++;
+			if (e!=null) remove(e);
+			long ttl=(policy.getTTL()>0)?policy.getTTL():defaultTTL;
+			e=new Entry(key,policy,now+TimeUnit.MILLISECONDS.toNanos(ttl));
+			entries.put(key, e);
+			bytes+=e.size;
+			evict();
+		}
+
+		// load outside the lock. Other callers for the same key wait on the entry's future.
+		Entry entry=e;
+		CompletableFuture<Outcome<Map<String,Object>>> f;
+		try {
+			f=loader.get();
+		} catch (Throwable t) {
+			discard(entry);
+			entry.result.complete(Outcome.fromThrowable(t));
+			throw t;
+		}
+		f.whenComplete((o,t)->{
+			if ((t!=null)||o.isError()||o.getValue().containsKey("errorCode")) {
+				discard(entry);
+			} else {
+				resize(entry,estimateSize(o.getValue()));
+			}
+			entry.result.complete((t!=null)?Outcome.fromThrowable(t):o);
+		});
+		return entry.result.thenApply(o->o);
+	}
+
+	private synchronized void discard(Entry e) {
+		if (entries.get(e.key)==e) remove(e);
+	}
+
+	private synchronized void resize(Entry e, long valueSize) {
+		if (entries.get(e.key)!=e) return;
+		bytes+=valueSize;
+		e.size+=valueSize;
+		evict();
+	}
+
+	private void remove(Entry e) {
+		entries.remove(e.key);
+		bytes-=e.size;
+	}
+
+	/**
+	 * Evicts least recently used entries until within bounds. Must be called while holding the lock.
+	 */
+	private void evict() {
+		Iterator<Entry> it=entries.values().iterator();
+		while (((entries.size()>maxEntries)||(bytes>maxBytes))&&it.hasNext()) {
+			Entry e=it.next();
+			it.remove();
+			bytes-=e.size;
+			evictions++;
+		}
+	}
+
+	/**
+	 * Discards all cached results in a scope
+	 * @param scope Scope name, as given in CachePolicy.withScope(...)
+	 * @return Number of results discarded
+	 */
+	public synchronized int invalidate(String scope) {
+		int n=0;
+		Iterator<Entry> it=entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e=it.next();
+			if ((scope!=null)&&scope.equals(e.scope)) {
+				it.remove();
+				bytes-=e.size;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Discards all cached results that are not stable. Called by Convex when a transaction completes.
+	 * @return Number of results discarded
+	 */
+	public synchronized int invalidateUnstable() {
+		int n=0;
+		Iterator<Entry> it=entries.values().iterator();
+		while (it.hasNext()) {
+			Entry e=it.next();
+			if (!e.stable) {
+				it.remove();
+				bytes-=e.size;
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Discards all cached results
+	 */
+	public synchronized void invalidateAll() {
+		entries.clear();
+		bytes=0;
+	}
+
+	/**
+	 * Gets the number of cached results, including queries in progress
+	 * @return Number of entries
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Gets the estimated heap size of all cached results
+	 * @return Estimated size in bytes
+	 */
+	public synchronized long getEstimatedBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Gets the number of queries answered from the cache
+	 * @return Hit count
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * Gets the number of queries sent to the peer because no valid result was cached
+	 * @return Miss count
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * Gets the number of results evicted to stay within the cache bounds
+	 * @return Eviction count
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "QueryCache entries="+entries.size()+" bytes="+bytes+" hits="+hits+" misses="+misses+" evictions="+evictions;
+	}
+
+	/**
+	 * Gets the cache key for a query
+	 * @param url Peer URL
+	 * @param address Address used for the query, may be null
+	 * @param code Query source
+	 * @return Cache key
+	 */
+	static String key(String url, Address address, String code) {
+		String prefix=(address==null)?"- ":(address.longValue()+" ");
+		return url+" "+prefix+normalise(code);
+	}
+
+	/**
+	 * Normalises Convex Lisp source by removing comments and collapsing whitespace (including
+	 * commas) to single spaces. String literals are left unchanged.
+	 *
+	 * @param code Source code
+	 * @return Normalised source
+	 */
+	static String normalise(String code) {
+		StringBuilder sb=new StringBuilder(code.length());
+		boolean space=false;
+		int n=code.length();
+		for (int i=0; i<n; i++) {
+			char c=code.charAt(i);
+			if (c=='"') {
+				if (space&&(sb.length()>0)) sb.append(' ');
+				space=false;
+				// copy string literal including escapes
+				sb.append(c);
+				for (i++; i<n; i++) {
+					c=code.charAt(i);
+					sb.append(c);
+					if (c=='\\') {
+						if (i+1<n) sb.append(code.charAt(++i));
+					} else if (c=='"') {
+						break;
+					}
+				}
+			} else if (c==';') {
+				while ((i+1<n)&&(code.charAt(i+1)!='\n')) i++;
+				space=true;
+			} else if (Character.isWhitespace(c)||(c==',')) {
+				space=true;
+			} else {
+				if (space&&(sb.length()>0)) sb.append(' ');
+				space=false;
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Estimates the heap size of a parsed JSON value, assuming compressed object pointers
+	 * @param v Value as returned by the JSON parser
+	 * @return Estimated size in bytes
+	 */
+	static long estimateSize(Object v) {
+		if (v==null) return 0;
+		if (v instanceof String) return 40+2L*((String)v).length();
+		if (v instanceof Map) {
+			long size=48;
+			for (Map.Entry<?,?> me: ((Map<?,?>)v).entrySet()) {
+				size+=36+estimateSize(me.getKey())+estimateSize(me.getValue());
+			}
+			return size;
+		}
+		if (v instanceof List) {
+			List<?> list=(List<?>)v;
+			long size=40+4L*list.size();
+			for (Object o: list) {
+				size+=estimateSize(o);
+			}
+			return size;
+		}
+		return 16;
+	}
+}
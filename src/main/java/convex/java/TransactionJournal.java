@@ -0,0 +1,357 @@
+package convex.java;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import convex.core.data.Address;
+import convex.core.data.Hash;
+
+/**
+ * Durable, append-only journal of transaction sequencing for one or more Accounts.
+ *
+ * The journal is a memory-mapped file of fixed size records. Each record notes an Account
+ * sequence number and optionally a transaction hash and status. On open, the journal is replayed
+ * into memory so that sequence numbers and any transactions with unknown outcome are available
+ * immediately without querying a peer.
+ *
+ * Records are written to the mapped buffer, so they survive a crash of the JVM process. Call
+ * sync() to force them to the storage device if durability against OS failure is also required.
+ *
+ * The file is compacted with a checkpoint that rewrites only live state. This happens
+ * automatically when the file fills up with superseded records, or can be requested explicitly.
+ *
+ * This class is thread safe.
+ */
+public class TransactionJournal implements Closeable {
+	/**
+	 * Status for a record that only notes the current sequence number of an Account
+	 */
+	public static final byte SEQUENCE=1;
+
+	/**
+	 * Status for a transaction that has been prepared but not yet submitted
+	 */
+	public static final byte PREPARED=2;
+
+	/**
+	 * Status for a transaction that has been signed and submitted, but has no known result
+	 */
+	public static final byte SUBMITTED=3;
+
+	/**
+	 * Status for a transaction that has a successful result
+	 */
+	public static final byte COMPLETED=4;
+
+	/**
+	 * Status for a transaction that was executed with an error, consuming its sequence number
+	 */
+	public static final byte FAILED=5;
+
+	/**
+	 * Status for a transaction that was rejected without execution, e.g. for a bad sequence number
+	 */
+	public static final byte REJECTED=6;
+
+	private static final int MAGIC=0x434A524E; // "CJRN"
+	private static final int VERSION=1;
+	private static final int HEADER_SIZE=16;
+
+	// status(1) + padding(7) + address(8) + sequence(8) + hash(32)
+	static final int RECORD_SIZE=56;
+	private static final int HASH_LENGTH=32;
+	private static final long INITIAL_CAPACITY=HEADER_SIZE+RECORD_SIZE*4096L;
+
+	private final Path path;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private long position;
+	private long recordCount;
+
+	private final HashMap<Long,Long> sequences=new HashMap<>();
+	private final LinkedHashMap<Hash,Entry> pending=new LinkedHashMap<>();
+
+	/**
+	 * A journalled transaction with an unknown or in-progress outcome
+	 */
+	public static final class Entry {
+		private final Address address;
+		private final long sequence;
+		private final Hash hash;
+		private final byte status;
+
+		Entry(Address address, long sequence, Hash hash, byte status) {
+			this.address=address;
+			this.sequence=sequence;
+			this.hash=hash;
+			this.status=status;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+		public Hash getHash() {
+			return hash;
+		}
+
+		public byte getStatus() {
+			return status;
+		}
+
+		@Override
+		public String toString() {
+			return "Journal entry "+address+" seq="+sequence+" hash="+hash+" status="+status;
+		}
+	}
+
+	private TransactionJournal(Path path) {
+		this.path=path;
+	}
+
+	/**
+	 * Opens a journal at the given path, creating a new file if necessary. Any existing records
+	 * are replayed into memory.
+	 *
+	 * @param path Path to journal file
+	 * @return Open TransactionJournal instance
+	 * @throws IOException If the file cannot be opened or is not a valid journal
+	 */
+	public static TransactionJournal open(Path path) throws IOException {
+		TransactionJournal journal=new TransactionJournal(path);
+		journal.openFile();
+		journal.replay();
+		return journal;
+	}
+
+	private void openFile() throws IOException {
+		channel=FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size=channel.size();
+		map(Math.max(size, INITIAL_CAPACITY));
+		if (size<HEADER_SIZE) {
+			buffer.putInt(0, MAGIC);
+			buffer.putInt(4, VERSION);
+		} else {
+			if (buffer.getInt(0)!=MAGIC) throw new IOException("Not a transaction journal: "+path);
+			if (buffer.getInt(4)!=VERSION) throw new IOException("Unsupported journal version "+buffer.getInt(4)+" in "+path);
+		}
+	}
+
+	private void map(long capacity) throws IOException {
+		buffer=channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+	}
+
+	private void replay() {
+		long pos=HEADER_SIZE;
+		long capacity=buffer.capacity();
+		recordCount=0;
+		while (pos+RECORD_SIZE<=capacity) {
+			byte status=buffer.get((int)pos);
+			// a zero status marks the end of the journal, or an incomplete record
+			if ((status<SEQUENCE)||(status>REJECTED)) break;
+			long addr=buffer.getLong((int)pos+8);
+			long seq=buffer.getLong((int)pos+16);
+			Hash hash=null;
+			if (status!=SEQUENCE) {
+				hash=getHash(buffer,(int)pos+24);
+			}
+			apply(addr,seq,hash,status);
+			pos+=RECORD_SIZE;
+			recordCount++;
+		}
+		position=pos;
+	}
+
+	private void apply(long addr, long seq, Hash hash, byte status) {
+		// only sequence numbers known to have been reached on the network are applied. Prepared and
+		// submitted transactions stay pending until their outcome is known.
+		if ((status==SEQUENCE)||(status==COMPLETED)||(status==FAILED)) {
+			sequences.merge(addr, seq, Math::max);
+		}
+		if (hash==null) return;
+		if ((status==PREPARED)||(status==SUBMITTED)) {
+			pending.put(hash, new Entry(Address.create(addr),seq,hash,status));
+		} else {
+			pending.remove(hash);
+		}
+	}
+
+	/**
+	 * Records the current sequence number for an Account
+	 * @param address Address of Account
+	 * @param sequence Sequence number
+	 * @throws IOException If the journal cannot be written
+	 */
+	public synchronized void recordSequence(Address address, long sequence) throws IOException {
+		Long current=sequences.get(address.longValue());
+		if ((current!=null)&&(current>=sequence)) return;
+		append(address.longValue(),sequence,null,SEQUENCE);
+	}
+
+	/**
+	 * Records the status of a transaction
+	 * @param address Address of Account submitting the transaction
+	 * @param sequence Sequence number of the transaction
+	 * @param hash Hash of the transaction
+	 * @param status One of PREPARED, SUBMITTED, COMPLETED, FAILED or REJECTED
+	 * @throws IOException If the journal cannot be written
+	 */
+	public synchronized void recordTransaction(Address address, long sequence, Hash hash, byte status) throws IOException {
+		if (hash==null) throw new IllegalArgumentException("Transaction hash required");
+		if ((status<PREPARED)||(status>REJECTED)) throw new IllegalArgumentException("Invalid transaction status: "+status);
+		append(address.longValue(),sequence,hash,status);
+	}
+
+	private void append(long addr, long seq, Hash hash, byte status) throws IOException {
+		if (buffer==null) throw new IllegalStateException("Journal is closed");
+		if (position+RECORD_SIZE>buffer.capacity()) {
+			makeSpace();
+		}
+		int pos=(int)position;
+		buffer.putLong(pos+8, addr);
+		buffer.putLong(pos+16, seq);
+		if (hash!=null) {
+			putHash(buffer,pos+24,hash);
+		}
+		// status written last, so an incomplete record is never replayed
+		buffer.put(pos, status);
+		position+=RECORD_SIZE;
+		recordCount++;
+		apply(addr,seq,hash,status);
+	}
+
+	private void makeSpace() throws IOException {
+		long live=sequences.size()+pending.size();
+		if (live*2<recordCount) {
+			checkpoint();
+		}
+		if (position+RECORD_SIZE>buffer.capacity()) {
+			long capacity=buffer.capacity()*2L;
+			if (capacity>Integer.MAX_VALUE) throw new IOException("Journal too large: "+path);
+			map(capacity);
+		}
+	}
+
+	/**
+	 * Gets the last sequence number known to have been reached by an Account, i.e. the highest
+	 * journalled sequence number or completed transaction. Pending transactions are not included.
+	 * @param address Address of Account
+	 * @return Sequence number, or null if not known
+	 */
+	public synchronized Long getSequence(Address address) {
+		return sequences.get(address.longValue());
+	}
+
+	/**
+	 * Gets all transactions that were prepared or submitted but have no recorded outcome.
+	 * After a crash, these transactions may or may not have been executed by the network.
+	 *
+	 * @return List of pending transaction entries, in the order they were first recorded
+	 */
+	public synchronized List<Entry> getPendingTransactions() {
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * Gets the number of Accounts with a journalled sequence number
+	 * @return Number of Accounts
+	 */
+	public synchronized int getAccountCount() {
+		return sequences.size();
+	}
+
+	/**
+	 * Gets the number of records currently in the journal file
+	 * @return Number of records
+	 */
+	public synchronized long getRecordCount() {
+		return recordCount;
+	}
+
+	/**
+	 * Compacts the journal so that it contains only the current sequence for each Account and
+	 * pending transactions. The new file replaces the old one atomically.
+	 *
+	 * @throws IOException If the checkpoint cannot be written
+	 */
+	public synchronized void checkpoint() throws IOException {
+		if (buffer==null) throw new IllegalStateException("Journal is closed");
+		long live=sequences.size()+pending.size();
+		long capacity=Math.max(INITIAL_CAPACITY, HEADER_SIZE+live*2*RECORD_SIZE);
+
+		Path temp=path.resolveSibling(path.getFileName()+".tmp");
+		try (FileChannel out=FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer nb=out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			nb.putInt(0, MAGIC);
+			nb.putInt(4, VERSION);
+			int pos=HEADER_SIZE;
+			for (Map.Entry<Long,Long> me: sequences.entrySet()) {
+				nb.putLong(pos+8, me.getKey());
+				nb.putLong(pos+16, me.getValue());
+				nb.put(pos, SEQUENCE);
+				pos+=RECORD_SIZE;
+			}
+			for (Entry e: pending.values()) {
+				nb.putLong(pos+8, e.address.longValue());
+				nb.putLong(pos+16, e.sequence);
+				putHash(nb,pos+24,e.hash);
+				nb.put(pos, e.status);
+				pos+=RECORD_SIZE;
+			}
+			nb.force();
+			position=pos;
+			recordCount=live;
+		}
+
+		channel.close();
+		buffer=null;
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		channel=FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		map(channel.size());
+	}
+
+	/**
+	 * Forces all journal records to the storage device
+	 */
+	public synchronized void sync() {
+		if (buffer!=null) buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (buffer==null) return;
+		buffer.force();
+		buffer=null;
+		channel.close();
+	}
+
+	private static void putHash(ByteBuffer bb, int pos, Hash hash) {
+		ByteBuffer dup=bb.duplicate();
+		dup.position(pos);
+		dup.put(hash.getBytes(), 0, HASH_LENGTH);
+	}
+
+	private static Hash getHash(ByteBuffer bb, int pos) {
+		byte[] bs=new byte[HASH_LENGTH];
+		ByteBuffer dup=bb.duplicate();
+		dup.position(pos);
+		dup.get(bs);
+		return Hash.wrap(bs);
+	}
+}
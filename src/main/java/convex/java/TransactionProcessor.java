@@ -0,0 +1,269 @@
+package convex.java;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A Flow.Processor that executes a stream of transactions using a Convex connection.
+ *
+ * Each item received from upstream is Convex Lisp source for a transaction, which is executed
+ * with transactAsync. Results are emitted downstream in submission order.
+ *
+ * Transactions use the same Account, so each is executed only once the previous one has
+ * completed. Executing them concurrently would have the peer assign the same sequence number
+ * to several transactions, all but one of which would then fail.
+ *
+ * Backpressure: at most maxInFlight transactions are outstanding at any time, counting those
+ * waiting to execute, the one executing, and those with a result not yet requested by the
+ * downstream Subscriber. Upstream demand is only signalled as these slots free up, so a slow peer
+ * or a slow consumer slows the producer.
+ *
+ * If a transaction fails with an exception (e.g. a timeout or network failure), the stream is
+ * terminated with onError after any earlier results have been delivered. Transactions that
+ * execute but return a CVM error are emitted as normal results with an "errorCode".
+ *
+ * Only a single downstream Subscriber is supported.
+ */
+public class TransactionProcessor implements Flow.Processor<String,Map<String,Object>> {
+	private final Convex convex;
+	private final int maxInFlight;
+
+	private final ArrayDeque<CompletableFuture<Map<String,Object>>> queue=new ArrayDeque<>();
+	private final AtomicInteger wip=new AtomicInteger();
+
+	// completes when the most recently received transaction is complete
+	private CompletableFuture<?> tail=CompletableFuture.completedFuture(null);
+
+	private Flow.Subscription upstream;
+	private Flow.Subscriber<? super Map<String,Object>> downstream;
+	private long demand=0;
+	private long requested=0;
+	private boolean upstreamDone=false;
+	private Throwable error=null;
+	private boolean terminated=false;
+
+	TransactionProcessor(Convex convex, int maxInFlight) {
+		if (maxInFlight<1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+		this.convex=convex;
+		this.maxInFlight=maxInFlight;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super Map<String,Object>> subscriber) {
+		if (subscriber==null) throw new NullPointerException("Subscriber");
+		synchronized(this) {
+			if (downstream==null) {
+				downstream=subscriber;
+				subscriber=null;
+			}
+		}
+		if (subscriber!=null) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override public void request(long n) {}
+				@Override public void cancel() {}
+			});
+			subscriber.onError(new IllegalStateException("TransactionProcessor only supports a single Subscriber"));
+			return;
+		}
+		downstream.onSubscribe(new Flow.Subscription() {
+			@Override
+			public void request(long n) {
+				synchronized(TransactionProcessor.this) {
+					if (n<=0) {
+						error=new IllegalArgumentException("Non-positive request: "+n);
+						cancelAll();
+					} else {
+						demand+=n;
+						if (demand<0) demand=Long.MAX_VALUE;
+					}
+				}
+				drain();
+			}
+
+			@Override
+			public void cancel() {
+				Flow.Subscription up;
+				synchronized(TransactionProcessor.this) {
+					terminated=true;
+					up=upstream;
+					cancelAll();
+				}
+				if (up!=null) up.cancel();
+			}
+		});
+		drain();
+	}
+
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		boolean accepted;
+		synchronized(this) {
+			accepted=(upstream==null)&&!terminated;
+			if (accepted) upstream=subscription;
+		}
+		if (!accepted) {
+			subscription.cancel();
+			return;
+		}
+		drain();
+	}
+
+	@Override
+	public void onNext(String code) {
+		CompletableFuture<Map<String,Object>> f=new CompletableFuture<>();
+		CompletableFuture<?> previous;
+		synchronized(this) {
+			requested--;
+			if (terminated) return;
+			queue.add(f);
+			previous=tail;
+			tail=f;
+		}
+		previous.whenComplete((r,e)->{
+			// after a failure the stream terminates, so later transactions are not started
+			if (e!=null) {
+				f.cancel(true);
+			} else {
+				execute(code,f);
+			}
+		});
+		f.whenComplete((r,e)->drain());
+	}
+
+	/**
+	 * Executes a transaction once the previous one is complete. Cancellation of the result (e.g.
+	 * after an earlier failure) aborts the transaction, or prevents it from starting.
+	 */
+	private void execute(String code, CompletableFuture<Map<String,Object>> f) {
+		if (f.isDone()) return;
+		CompletableFuture<Map<String,Object>> tx;
+		try {
+			tx=convex.transactAsync(code);
+		} catch (Throwable e) {
+			f.completeExceptionally(e);
+			return;
+		}
+		f.whenComplete((r,e)->{
+			if (e!=null) tx.cancel(true);
+		});
+		tx.whenComplete((r,e)->{
+			if (e!=null) {
+				f.completeExceptionally((e instanceof CompletionException)&&(e.getCause()!=null)?e.getCause():e);
+			} else {
+				f.complete(r);
+			}
+		});
+	}
+
+	@Override
+	public void onError(Throwable throwable) {
+		synchronized(this) {
+			upstreamDone=true;
+			if (error==null) error=throwable;
+		}
+		drain();
+	}
+
+	@Override
+	public void onComplete() {
+		synchronized(this) {
+			upstreamDone=true;
+		}
+		drain();
+	}
+
+	/**
+	 * Cancels all pending transactions. Must be called while holding the lock
+	 */
+	private void cancelAll() {
+		for (CompletableFuture<Map<String,Object>> f: queue) {
+			f.cancel(true);
+		}
+		queue.clear();
+	}
+
+	/**
+	 * Delivers completed results, terminal signals and upstream demand. Calls to Subscribers are
+	 * serialised by the work-in-progress counter, and never made while holding the lock.
+	 */
+	private void drain() {
+		if (wip.getAndIncrement()!=0) return;
+		int missed=1;
+		do {
+			Flow.Subscriber<? super Map<String,Object>> d;
+			synchronized(this) {
+				d=downstream;
+			}
+			if (d!=null) {
+				emit(d);
+			}
+			missed=wip.addAndGet(-missed);
+		} while (missed!=0);
+	}
+
+	private void emit(Flow.Subscriber<? super Map<String,Object>> d) {
+		while (true) {
+			CompletableFuture<Map<String,Object>> head;
+			synchronized(this) {
+				if (terminated) return;
+				head=queue.peek();
+				if ((head==null)||!head.isDone()) break;
+				if (head.isCompletedExceptionally()) {
+					error=cause(head);
+					cancelAll();
+					break;
+				}
+				if (demand==0) break;
+				queue.poll();
+				demand--;
+			}
+			d.onNext(head.join());
+		}
+
+		Throwable terminalError=null;
+		boolean complete=false;
+		boolean cancelUpstream=false;
+		Flow.Subscription up;
+		long n=0;
+		synchronized(this) {
+			if (terminated) return;
+			up=upstream;
+			cancelUpstream=!upstreamDone&&(up!=null);
+			if ((error!=null)&&queue.isEmpty()) {
+				terminalError=error;
+			} else if (upstreamDone&&queue.isEmpty()) {
+				complete=true;
+			} else if (!upstreamDone&&(up!=null)) {
+				long slots=maxInFlight-queue.size()-requested;
+				if (slots>0) {
+					n=slots;
+					requested+=n;
+				}
+			}
+			if ((terminalError!=null)||complete) terminated=true;
+		}
+		if (terminalError!=null) {
+			if (cancelUpstream) up.cancel();
+			d.onError(terminalError);
+		} else if (complete) {
+			d.onComplete();
+		} else if (n>0) {
+			up.request(n);
+		}
+	}
+
+	private static Throwable cause(CompletableFuture<?> f) {
+		try {
+			f.join();
+			return null;
+		} catch (CompletionException e) {
+			return (e.getCause()!=null)?e.getCause():e;
+		} catch (Throwable e) {
+			return e;
+		}
+	}
+}
@@ -1,7 +1,10 @@
 package convex.java.asset;
 
+import java.util.concurrent.CompletableFuture;
+
 import convex.core.data.Address;
 import convex.java.Convex;
+import convex.java.Outcome;
 
 /**
  * Abstract base class for asset instances
@@ -18,4 +21,42 @@ public abstract class BaseAsset<T> {
 	public abstract T getBalance();
 	
 	public abstract T getBalance(Address holder);
+	
+	/**
+	 * Gets the balance of this asset for the current Address asynchronously. Subclasses should 
+	 * override this with a non-blocking implementation: the default returns a future failed with 
+	 * UnsupportedOperationException, rather than blocking a thread on getBalance().
+	 * @return Future for the balance
+	 */
+	public CompletableFuture<T> getBalanceAsync() {
+		return unsupported("getBalanceAsync");
+	}
+	
+	/**
+	 * Gets the balance of this asset for the given holder asynchronously. Subclasses should 
+	 * override this with a non-blocking implementation: the default returns a future failed with 
+	 * UnsupportedOperationException, rather than blocking a thread on getBalance(holder).
+	 * @param holder Address of holder
+	 * @return Future for the balance
+	 */
+	public CompletableFuture<T> getBalanceAsync(Address holder) {
+		return unsupported("getBalanceAsync");
+	}
+	
+	/**
+	 * Gets the balance of this asset for the given holder asynchronously, returning an Outcome
+	 * rather than failing with an exception. The default implementation adapts getBalanceAsync(holder).
+	 * 
+	 * @param holder Address of holder
+	 * @return Future for the balance Outcome
+	 */
+	public CompletableFuture<Outcome<T>> getBalanceOutcomeAsync(Address holder) {
+		return getBalanceAsync(holder).handle((v,e)->(e!=null)?Outcome.fromThrowable(e):Outcome.of(v));
+	}
+	
+	private CompletableFuture<T> unsupported(String method) {
+		CompletableFuture<T> f=new CompletableFuture<>();
+		f.completeExceptionally(new UnsupportedOperationException(method+" not implemented by "+getClass().getName()));
+		return f;
+	}
 }
@@ -1,11 +1,21 @@
 package convex.java.asset;
 
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import convex.core.data.Address;
+import convex.java.AddressLongMap;
 import convex.java.Convex;
+import convex.java.Outcome;
 
 public class Fungible extends BaseAsset<Long> {
+	/**
+	 * Maximum number of holders included in a single balance query by getBalancesOutcomeAsync
+	 */
+	public static final int BALANCE_BATCH_SIZE=1000;
+	
 	private final Address tokenAddress;
 	
 	protected Fungible(Convex convex, Address address) {
@@ -24,18 +34,144 @@ public class Fungible extends BaseAsset<Long> {
 
 	@Override
 	public Long getBalance(Address holder) {
-		String code="(do (import convex.fungible :as fungible) (fungible/balance "+tokenAddress.toString()+" "+holder.toString()+"))";
-		Map<String,Object> result=convex.query(code);
+		Map<String,Object> result=convex.query(balanceCode(holder));
+		return parseBalance(result);
+	}
+	
+	@Override
+	public CompletableFuture<Long> getBalanceAsync() {
+		return getBalanceAsync(convex.getAddress());
+	}
+
+	@Override
+	public CompletableFuture<Long> getBalanceAsync(Address holder) {
+		return convex.queryAsync(balanceCode(holder)).thenApply(Fungible::parseBalance);
+	}
+	
+	@Override
+	public CompletableFuture<Outcome<Long>> getBalanceOutcomeAsync(Address holder) {
+		return convex.queryOutcomeAsync(balanceCode(holder)).thenApply(o->o.isError()?o.castError():toBalance(o.getValue()));
+	}
+	
+	/**
+	 * Gets the balances of many holders. See getBalancesOutcomeAsync for details.
+	 * @param holders Long values of holder Addresses
+	 * @return Map of holder balances
+	 */
+	public AddressLongMap getBalances(long[] holders) {
+		Outcome<AddressLongMap> o=getBalancesOutcomeAsync(holders).join();
+		if (o.isError()) throw new Error("Token balance query failed: "+o);
+		return o.getValue();
+	}
+	
+	/**
+	 * Gets the balances of many holders asynchronously. Holders are queried in batches of 
+	 * BALANCE_BATCH_SIZE, with balances decoded directly into a single primitive map rather than 
+	 * boxed values. Holders whose balance is nil are omitted.
+	 * 
+	 * At most one batch per pooled connection to the peer is in flight, with the next batch 
+	 * started as each completes, so that batches don't wait for a connection and time out. If any
+	 * batch fails, no further batches are started and the Outcome is that error.
+	 * 
+	 * @param holders Long values of holder Addresses
+	 * @return Future for the Outcome with a map of holder balances
+	 */
+	public CompletableFuture<Outcome<AddressLongMap>> getBalancesOutcomeAsync(long[] holders) {
+		int n=holders.length;
+		if (n==0) return CompletableFuture.completedFuture(Outcome.of(new AddressLongMap()));
+		if (n<=BALANCE_BATCH_SIZE) return convex.queryAddressLongMapAsync(balancesCode(holders),holders);
+		BalancesQuery q=new BalancesQuery(holders);
+		int window=Math.min(q.batches, Convex.getMaxConnectionsPerPeer());
+		for (int i=0; i<window; i++) {
+			q.next();
+		}
+		return q.result;
+	}
+	
+	/**
+	 * Batched balance query, starting each batch as a previous one completes
+	 */
+	private final class BalancesQuery {
+		final long[] holders;
+		final int batches;
+		final AddressLongMap balances;
+		final CompletableFuture<Outcome<AddressLongMap>> result=new CompletableFuture<>();
+		final AtomicInteger started=new AtomicInteger();
+		int completed=0;
+		
+		BalancesQuery(long[] holders) {
+			this.holders=holders;
+			this.batches=(holders.length+BALANCE_BATCH_SIZE-1)/BALANCE_BATCH_SIZE;
+			this.balances=new AddressLongMap(holders.length);
+		}
 		
+		void next() {
+			int b=started.getAndIncrement();
+			if ((b>=batches)||result.isDone()) return;
+			long[] batch=Arrays.copyOfRange(holders, b*BALANCE_BATCH_SIZE, Math.min(holders.length, (b+1)*BALANCE_BATCH_SIZE));
+			CompletableFuture<Outcome<AddressLongMap>> f;
+			try {
+				f=convex.queryAddressLongMapAsync(balancesCode(batch),batch);
+			} catch (Throwable e) {
+				result.complete(Outcome.fromThrowable(e));
+				return;
+			}
+			f.whenComplete((o,e)->{
+				Outcome<AddressLongMap> r=(e!=null)?Outcome.fromThrowable(e):o;
+				if (r.isError()) {
+					result.complete(r);
+					return;
+				}
+				boolean done;
+				synchronized(this) {
+					balances.putAll(r.getValue());
+					done=(++completed==batches);
+				}
+				if (done) {
+					result.complete(Outcome.of(balances));
+				} else {
+					next();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Gets the Address of this token
+	 * @return Token Address
+	 */
+	public Address getAddress() {
+		return tokenAddress;
+	}
+	
+	private String balanceCode(Address holder) {
+		return "(do (import convex.fungible :as fungible) (fungible/balance "+tokenAddress.toString()+" "+holder.toString()+"))";
+	}
+	
+	private String balancesCode(long[] holders) {
+		StringBuilder sb=new StringBuilder(holders.length*10+100);
+		sb.append("(do (import convex.fungible :as fungible) (mapv (fn [a] (fungible/balance "+tokenAddress.toString()+" a)) [");
+		for (long h: holders) {
+			sb.append('#').append(h).append(' ');
+		}
+		sb.append("]))");
+		return sb.toString();
+	}
+	
+	private static Long parseBalance(Map<String,Object> result) {
 		if (result.containsKey("errorCode")) throw new Error("Token balance query failed" + result);
 		
-		// should be a success, returning address
-		Object value=result.get("value");
+		// should be a success, returning balance
+		Outcome<Long> balance=toBalance(result.get("value"));
+		if (balance.isError()) throw new Error(String.valueOf(balance.getMessage()));
+		return balance.getValue();
+	}
+	
+	private static Outcome<Long> toBalance(Object value) {
 		if (value instanceof Long) {
-			Long aNum=(Long) value;
-			return aNum;
+			return Outcome.of((Long)value);
 		} else {
-			throw new Error("Unexpected return value: "+value);
+			return Outcome.error(Outcome.FORMAT, "Unexpected return value: "+value);
 		}
 	}
 
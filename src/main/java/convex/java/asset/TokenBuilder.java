@@ -1,6 +1,10 @@
 package convex.java.asset;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import convex.core.data.ACell;
 import convex.core.data.AMap;
@@ -8,10 +12,25 @@ import convex.core.data.Address;
 import convex.core.data.Keyword;
 import convex.core.data.Maps;
 import convex.core.data.prim.CVMLong;
+import convex.core.util.Utils;
 import convex.java.Convex;
+import convex.java.Outcome;
+import convex.java.PresignedQueue;
 
 public class TokenBuilder {
 	private static final Keyword SUPPLY=Keyword.create("supply");
+	
+	/**
+	 * Maximum number of tokens deployed in a single transaction by deployAll
+	 */
+	public static final int MAX_BATCH_TOKENS=20;
+	
+	/**
+	 * Maximum source size in characters of a single transaction generated by deployAll
+	 */
+	public static final int MAX_BATCH_CODE_SIZE=16384;
+	
+	private static final String IMPORT="(do (import convex.fungible :as fungible) \n";
 
 	private final AMap<Keyword,ACell> config; 
 	
@@ -41,27 +60,195 @@ public class TokenBuilder {
 
 	public String generateCode() {
 		StringBuilder sb=new StringBuilder();
-		sb.append("(do (import convex.fungible :as fungible) \n");
-		sb.append("  (deploy [(fungible/build-token "+config.toString()+")\n");
-				
-		sb.append("]))");
+		sb.append(IMPORT);
+		sb.append(deployForm());
+		sb.append(")");
 		return sb.toString();
 	}
 	
+	private String deployForm() {
+		return "  (deploy [(fungible/build-token "+config.toString()+")\n])";
+	}
+	
+	/**
+	 * Generates code for deploying several tokens in as few transactions as possible. Each
+	 * transaction returns a vector of the deployed token Addresses, in order. 
+	 * 
+	 * @param builders TokenBuilders for the tokens to deploy
+	 * @return Source code for each transaction
+	 */
+	public static List<String> generateCode(List<TokenBuilder> builders) {
+		ArrayList<String> result=new ArrayList<>();
+		for (List<String> forms: batchForms(builders)) {
+			StringBuilder sb=new StringBuilder();
+			sb.append(IMPORT).append("  [");
+			for (String form: forms) {
+				sb.append(form);
+			}
+			result.add(sb.append("])").toString());
+		}
+		return result;
+	}
+	
+	/**
+	 * Groups deploy forms into batches within MAX_BATCH_TOKENS and MAX_BATCH_CODE_SIZE
+	 */
+	private static List<List<String>> batchForms(List<TokenBuilder> builders) {
+		ArrayList<List<String>> result=new ArrayList<>();
+		ArrayList<String> batch=new ArrayList<>();
+		int size=0;
+		for (TokenBuilder b: builders) {
+			String form=b.deployForm();
+			if (!batch.isEmpty()&&((batch.size()==MAX_BATCH_TOKENS)||(size+form.length()+2>MAX_BATCH_CODE_SIZE))) {
+				result.add(batch);
+				batch=new ArrayList<>();
+			}
+			if (batch.isEmpty()) size=IMPORT.length()+3;
+			batch.add(form);
+			size+=form.length();
+		}
+		if (!batch.isEmpty()) result.add(batch);
+		return result;
+	}
+	
 	public Fungible deploy(Convex convex) {
 		String code=generateCode();
 		
 		Map<String,Object> result= convex.transact(code);
+		return parseDeployResult(convex,result);
+	}
+	
+	/**
+	 * Deploys a token using the current config asynchronously
+	 * @param convex Convex connection to use for the deployment transaction
+	 * @return Future for the deployed token
+	 */
+	public CompletableFuture<Fungible> deployAsync(Convex convex) {
+		String code=generateCode();
+		return convex.transactAsync(code).thenApply(result->parseDeployResult(convex,result));
+	}
+	
+	/**
+	 * Deploys a token using the current config asynchronously, returning an Outcome rather than
+	 * failing with an exception.
+	 * 
+	 * @param convex Convex connection to use for the deployment transaction
+	 * @return Future for the deployed token Outcome
+	 */
+	public CompletableFuture<Outcome<Fungible>> deployOutcomeAsync(Convex convex) {
+		String code=generateCode();
+		return convex.transactOutcomeAsync(code).thenApply(o->o.isError()?o.castError():toFungible(convex,o.getValue()));
+	}
+	
+	/**
+	 * Deploys several tokens, packing multiple deployments into each transaction. See 
+	 * deployAllOutcomeAsync for details.
+	 * 
+	 * @param convex Convex connection to use for the deployment transactions
+	 * @param builders TokenBuilders for the tokens to deploy
+	 * @return Deployed tokens, in the same order as the builders
+	 * @throws Error If any transaction fails
+	 */
+	public static List<Fungible> deployAll(Convex convex, List<TokenBuilder> builders) {
+		try {
+			return deployAllAsync(convex,builders).get();
+		} catch (ExecutionException e) {
+			// rethrow the Error from a failed transaction as-is, as for deploy(...)
+			throw Utils.sneakyThrow(e.getCause());
+		} catch (InterruptedException e) {
+			throw Utils.sneakyThrow(e);
+		}
+	}
+	
+	/**
+	 * Deploys several tokens asynchronously, packing multiple deployments into each transaction. 
+	 * See deployAllOutcomeAsync for details.
+	 * 
+	 * @param convex Convex connection to use for the deployment transactions
+	 * @param builders TokenBuilders for the tokens to deploy
+	 * @return Future for the deployed tokens, in the same order as the builders. Fails with an 
+	 * Error if any transaction fails.
+	 */
+	public static CompletableFuture<List<Fungible>> deployAllAsync(Convex convex, List<TokenBuilder> builders) {
+		return deployAllOutcomeAsync(convex,builders).thenApply(outcomes->{
+			ArrayList<Fungible> tokens=new ArrayList<>(builders.size());
+			for (Outcome<List<Fungible>> o: outcomes) {
+				if (o.isError()) throw new Error("Token deployment failed: "+o);
+				tokens.addAll(o.getValue());
+			}
+			return tokens;
+		});
+	}
+	
+	/**
+	 * Deploys several tokens asynchronously, returning an Outcome for each transaction rather than
+	 * failing with an exception.
+	 * 
+	 * Deployments are packed into transactions of up to MAX_BATCH_TOKENS tokens, limited to 
+	 * MAX_BATCH_CODE_SIZE characters of source. The transactions are prepared and signed together
+	 * using a PresignedQueue, then submitted in sequence order. No other transactions should be 
+	 * executed for the same Account until the result is complete.
+	 * 
+	 * If a transaction fails, later transactions are not submitted and have a CANCELLED Outcome.
+	 * Tokens deployed by earlier transactions are still returned in their Outcomes.
+	 * 
+	 * @param convex Convex connection to use for the deployment transactions
+	 * @param builders TokenBuilders for the tokens to deploy
+	 * @return Future for an Outcome per transaction, each with the tokens it deployed. Tokens are 
+	 * in the same order as the builders.
+	 */
+	public static CompletableFuture<List<Outcome<List<Fungible>>>> deployAllOutcomeAsync(Convex convex, List<TokenBuilder> builders) {
+		List<List<String>> batches=batchForms(builders);
+		List<String> codes=generateCode(builders);
+		PresignedQueue queue=convex.presignedQueue();
+		return queue.prepareAsync(codes).thenCompose(po->{
+			if (po.isError()) {
+				ArrayList<Outcome<List<Fungible>>> errors=new ArrayList<>(codes.size());
+				for (int i=0; i<codes.size(); i++) {
+					errors.add(po.castError());
+				}
+				return CompletableFuture.completedFuture(errors);
+			}
+			return queue.flush().thenApply(results->{
+				ArrayList<Outcome<List<Fungible>>> outcomes=new ArrayList<>(results.size());
+				for (int i=0; i<results.size(); i++) {
+					outcomes.add(toFungibles(convex,results.get(i),batches.get(i).size()));
+				}
+				return outcomes;
+			});
+		});
+	}
+	
+	private static Outcome<List<Fungible>> toFungibles(Convex convex, Outcome<Object> r, int expected) {
+		if (r.isError()) return r.castError();
+		if (!(r.getValue() instanceof List)) return Outcome.error(Outcome.FORMAT, "Unexpected return value: "+r.getValue());
+		List<?> values=(List<?>)r.getValue();
+		if (values.size()!=expected) return Outcome.error(Outcome.FORMAT, "Expected "+expected+" tokens but got "+values.size());
+		ArrayList<Fungible> tokens=new ArrayList<>(expected);
+		for (Object v: values) {
+			Outcome<Fungible> token=toFungible(convex,v);
+			if (token.isError()) return token.castError();
+			tokens.add(token.getValue());
+		}
+		return Outcome.of(tokens);
+	}
+	
+	private static Fungible parseDeployResult(Convex convex, Map<String,Object> result) {
 		if (result.containsKey("errorCode")) throw new Error("Token deployment failed" + result);
 		
 		// should be a success, returning address
-		Object value=result.get("value");
+		Outcome<Fungible> token=toFungible(convex,result.get("value"));
+		if (token.isError()) throw new Error(String.valueOf(token.getMessage()));
+		return token.getValue();
+	}
+	
+	private static Outcome<Fungible> toFungible(Convex convex, Object value) {
 		if (value instanceof Long) {
 			Long aNum=(Long) value;
 			Address addr=Address.create(aNum);
-			return Fungible.create(convex, addr);
+			return Outcome.of(Fungible.create(convex, addr));
 		} else {
-			throw new Error("Unexpected return value: "+value);
+			return Outcome.error(Outcome.FORMAT, "Unexpected return value: "+value);
 		}
 	}
 	
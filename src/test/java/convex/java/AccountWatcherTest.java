@@ -0,0 +1,132 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+import convex.java.asset.Fungible;
+
+public class AccountWatcherTest {
+	private static final String QUERY="/api/v1/query";
+
+	private static final long MIN=50;
+	private static final long MAX=400;
+
+	/**
+	 * Listener recording each change as "key old new"
+	 */
+	private static final class Recorder implements AccountWatcher.Listener {
+		final List<String> changes=Collections.synchronizedList(new ArrayList<>());
+
+		@Override
+		public void changed(Address address, String key, Long oldValue, Long newValue) {
+			changes.add(key+" "+oldValue+" "+newValue);
+		}
+	}
+
+	@Test public void testChangeNotification() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		AccountWatcher w=null;
+		try {
+			Convex convex=peer.connect();
+			Address a=convex.getAddress();
+			w=convex.accountWatcher(MIN,MAX);
+			Recorder r=new Recorder();
+			w.watch(a,r);
+			awaitChanges(r,2);
+			assertTrue(r.changes.contains("balance null 1000000000"));
+			assertTrue(r.changes.contains("sequence null 0"));
+
+			// unchanged values are polled but not reported
+			Thread.sleep(500);
+			assertEquals(2,r.changes.size());
+
+			peer.setBalance(a.longValue(), 5);
+			awaitChanges(r,3);
+			assertEquals("balance 1000000000 5",r.changes.get(2));
+			Thread.sleep(300);
+			assertEquals(3,r.changes.size());
+		} finally {
+			if (w!=null) w.close();
+			peer.close();
+		}
+	}
+
+	@Test public void testBackoff() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		AccountWatcher w=null;
+		try {
+			Convex convex=peer.connect();
+			Address a=convex.getAddress();
+			w=convex.accountWatcher(MIN,MAX);
+			Recorder r=new Recorder();
+			w.watch(a,r);
+			awaitChanges(r,2);
+
+			// intervals of 100, 200, 400, 400... rather than 50 while unchanged
+			long start=peer.getRequestCount(QUERY);
+			Thread.sleep(1500);
+			long polls=peer.getRequestCount(QUERY)-start;
+			assertTrue(polls>=2,"Polls: "+polls);
+			assertTrue(polls<=8,"Polls: "+polls);
+
+			// a change returns to the minimum interval
+			peer.setBalance(a.longValue(), 5);
+			awaitChanges(r,3);
+			peer.setBalance(a.longValue(), 6);
+			long changed=System.currentTimeMillis();
+			awaitChanges(r,4);
+			assertTrue(System.currentTimeMillis()-changed<MAX/2);
+		} finally {
+			if (w!=null) w.close();
+			peer.close();
+		}
+	}
+
+	@Test public void testTokenUnwatch() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		AccountWatcher w=null;
+		try {
+			Convex convex=peer.connect();
+			Address a=convex.getAddress();
+			Fungible token=Fungible.create(convex, Address.create(77));
+			peer.setTokenBalance(77, a.longValue(), 10);
+			w=convex.accountWatcher(MIN,MAX);
+			Recorder r=new Recorder();
+			w.watch(token,a,r);
+			awaitChanges(r,1);
+			assertEquals("#77 null 10",r.changes.get(0));
+			assertEquals(1,w.size());
+
+			w.unwatch(token,a,r);
+			assertEquals(0,w.size());
+			Thread.sleep(2*MAX);
+			long count=peer.getRequestCount(QUERY);
+			Thread.sleep(2*MAX);
+			assertEquals(count,peer.getRequestCount(QUERY));
+
+			// watching again after the token was removed
+			w.watch(token,a,r);
+			peer.setTokenBalance(77, a.longValue(), 11);
+			awaitChanges(r,2);
+			assertEquals("#77 null 11",r.changes.get(1));
+		} finally {
+			if (w!=null) w.close();
+			peer.close();
+		}
+	}
+
+	private static void awaitChanges(Recorder r, int n) throws InterruptedException {
+		long deadline=System.currentTimeMillis()+2000;
+		while (r.changes.size()<n) {
+			if (System.currentTimeMillis()>deadline) throw new AssertionError("Changes not received: "+r.changes);
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+
+public class AddressLongMapTest {
+
+	@Test public void testAgainstHashMap() {
+		AddressLongMap m=new AddressLongMap();
+		HashMap<Long,Long> ref=new HashMap<>();
+		Random r=new Random(1234);
+		for (int i=0; i<20000; i++) {
+			long k=r.nextInt(2000);
+			int op=r.nextInt(3);
+			if (op==0) {
+				m.put(k, i);
+				ref.put(k, (long)i);
+			} else if (op==1) {
+				assertEquals(ref.remove(k)!=null,m.remove(k));
+			} else {
+				assertEquals(ref.getOrDefault(k, -7L).longValue(),m.get(k, -7L));
+			}
+		}
+		assertEquals(ref.size(),m.size());
+		m.forEach((k,v)->assertEquals(ref.get(k).longValue(),v));
+		assertEquals(ref.size(),m.keys().length);
+
+		m.clear();
+		assertTrue(m.isEmpty());
+		assertFalse(m.containsKey(Address.create(5)));
+		assertEquals(10L,m.add(5, 10));
+		assertEquals(15L,m.add(5, 5));
+		assertEquals(15L,m.get(Address.create(5), 0));
+	}
+
+	@Test public void testNegativeKeys() {
+		AddressLongMap m=new AddressLongMap();
+		m.put(3, 30);
+
+		// -1 is the marker for empty slots, so must not be found in them
+		assertFalse(m.containsKey(-1));
+		assertEquals(-7L,m.get(-1, -7L));
+		assertFalse(m.remove(-1));
+		assertFalse(m.remove(Long.MIN_VALUE));
+		assertEquals(1,m.size());
+		try {
+			m.add(-1, 5);
+			throw new AssertionError("Expected invalid Address");
+		} catch (IllegalArgumentException e) {
+			assertEquals(1,m.size());
+		}
+	}
+
+	@Test public void testDecode() throws Exception {
+		long[] keys={11,12,13};
+		AddressLongMap m=decode("{\"status\":\"ok\", \"value\": [100, null, -5]}",keys).getValue();
+		assertEquals(2,m.size());
+		assertEquals(100L,m.get(11, 0));
+		assertFalse(m.containsKey(12));
+		assertEquals(-5L,m.get(13, 0));
+
+		m=decode("{\"value\":[[\"#7\",9223372036854775807],[8,0],[9,null]],\"info\":{\"juice\":[1,\"a]\"]}}",null).getValue();
+		assertEquals(2,m.size());
+		assertEquals(Long.MAX_VALUE,m.get(7, 0));
+		assertTrue(m.containsKey(8));
+
+		Outcome<AddressLongMap> e=decode("{\"value\":\"No such account\",\"errorCode\":\"NOBODY\"}",keys);
+		assertEquals("NOBODY",e.getErrorCode());
+		assertEquals("No such account",e.getMessage());
+
+		// missing values must not look like nil balances
+		for (String json: new String[] {"{\"value\":[100, null]}","{\"value\":[]}"}) {
+			try {
+				decode(json,keys);
+				throw new AssertionError("Expected format error");
+			} catch (ClientException ce) {
+				assertEquals(Outcome.FORMAT,ce.getErrorCode());
+			}
+		}
+		assertEquals(0,decode("{\"value\":[]}",new long[0]).getValue().size());
+
+		try {
+			decode("{\"value\":[1.5]}",keys);
+			throw new AssertionError("Expected format error");
+		} catch (ClientException ce) {
+			assertEquals(Outcome.FORMAT,ce.getErrorCode());
+		}
+	}
+
+	private static Outcome<AddressLongMap> decode(String json, long[] keys) throws Exception {
+		return AddressLongDecoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),keys);
+	}
+}
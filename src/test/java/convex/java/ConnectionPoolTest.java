@@ -0,0 +1,82 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class ConnectionPoolTest {
+
+	/**
+	 * Loads a fresh copy of Convex, since the shared HTTP client of the test class loader may
+	 * already have been started by other tests
+	 */
+	private static Class<?> loadConvex(URLClassLoader loader) throws Exception {
+		return Class.forName(Convex.class.getName(), true, loader);
+	}
+
+	private static URLClassLoader isolatedLoader() throws Exception {
+		ArrayList<URL> urls=new ArrayList<>();
+		for (String s: System.getProperty("java.class.path").split(File.pathSeparator)) {
+			urls.add(new File(s).toURI().toURL());
+		}
+		return new URLClassLoader(urls.toArray(new URL[0]),ClassLoader.getPlatformClassLoader());
+	}
+
+	private static Object call(Class<?> c, Object target, String name, Class<?>[] types, Object... args) throws Throwable {
+		Method m=c.getDeclaredMethod(name, types);
+		m.setAccessible(true);
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Test public void testLazyStart() throws Throwable {
+		StubPeer peer=StubPeer.start(0, 0);
+		try (URLClassLoader loader=isolatedLoader()) {
+			Class<?> c=loadConvex(loader);
+			assertFalse((Boolean)call(c,null,"isHttpClientStarted",new Class<?>[0]));
+
+			// pool size may be set until the first request
+			call(c,null,"setConnectionPoolSize",new Class<?>[] {int.class,int.class},3,10);
+			Object convex=call(c,null,"connect",new Class<?>[] {String.class},peer.getURL());
+			assertFalse((Boolean)call(c,null,"isHttpClientStarted",new Class<?>[0]));
+
+			CompletableFuture<?> f=(CompletableFuture<?>)call(c,convex,"warmUp",new Class<?>[] {int.class},5);
+			assertEquals(3,f.get(5, TimeUnit.SECONDS));
+			assertTrue((Boolean)call(c,null,"isHttpClientStarted",new Class<?>[0]));
+			assertThrows(IllegalStateException.class,()->call(c,null,"setConnectionPoolSize",new Class<?>[] {int.class,int.class},4,10));
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testWarmUp() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=Convex.connect(peer.getURL());
+			int max=Convex.getMaxConnectionsPerPeer();
+			assertEquals(0,(int)convex.warmUp(0).get(5, TimeUnit.SECONDS));
+			assertEquals(1,(int)convex.warmUp(1).get(5, TimeUnit.SECONDS));
+			assertEquals(max,(int)convex.warmUp(max+3).get(5, TimeUnit.SECONDS));
+			assertEquals(max,(int)convex.warmUp().get(5, TimeUnit.SECONDS));
+			assertTrue(Convex.isHttpClientStarted());
+			assertThrows(IllegalStateException.class,()->Convex.setConnectionPoolSize(max+1, 100));
+		} finally {
+			peer.close();
+		}
+	}
+}
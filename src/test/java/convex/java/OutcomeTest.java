@@ -0,0 +1,54 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+public class OutcomeTest {
+
+	@Test public void testFromResult() {
+		HashMap<String,Object> ok=new HashMap<>();
+		ok.put("value", 3L);
+		Outcome<Object> o=Outcome.fromResult(ok);
+		assertFalse(o.isError());
+		assertEquals(3L,o.getValue());
+		Object incremented=o.map(v->((Long)v)+1).getValue();
+		assertEquals(4L,incremented);
+
+		HashMap<String,Object> err=new HashMap<>();
+		err.put("errorCode", "SEQUENCE");
+		err.put("value", "Bad sequence");
+		Outcome<Object> e=Outcome.fromResult(err);
+		assertTrue(e.isError());
+		assertEquals("SEQUENCE",e.getErrorCode());
+		assertEquals("Bad sequence",e.getMessage());
+		assertNull(e.getValue());
+		assertSame(e,e.map(v->v));
+		assertTrue(e.toException() instanceof ClientException);
+	}
+
+	@Test public void testFromThrowable() {
+		assertSame(Outcome.timeout(),Outcome.fromThrowable(new CompletionException(new TimeoutException())));
+		assertTrue(Outcome.timeout().toException() instanceof TimeoutException);
+
+		IOException ioe=new IOException("Connection refused");
+		Outcome<Object> o=Outcome.fromThrowable(ioe);
+		assertEquals(Outcome.IO,o.getErrorCode());
+		assertSame(ioe,o.toException());
+
+		// a ClientException without an error code is still an error
+		Outcome<Object> c=Outcome.fromThrowable(new ClientException("Bad response"));
+		assertTrue(c.isError());
+		assertEquals(Outcome.FORMAT,c.getErrorCode());
+		assertEquals("Bad response",c.getMessage());
+	}
+}
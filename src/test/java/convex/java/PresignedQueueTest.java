@@ -0,0 +1,102 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+public class PresignedQueueTest {
+
+	private static List<String> transactions(int n, int fail) {
+		ArrayList<String> result=new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			result.add((i==fail)?"(fail)":"(def a "+i+")");
+		}
+		return result;
+	}
+
+	@Test public void testBatchOrder() throws Exception {
+		StubPeer peer=StubPeer.start(0, 2);
+		try {
+			Convex convex=peer.connect();
+			PresignedQueue q=convex.presignedQueue();
+			assertEquals(10,(int)q.prepareAsync(transactions(10,-1)).join().getValue());
+			assertEquals(10,(int)q.prepareAsync(transactions(10,-1)).join().getValue());
+
+			List<Outcome<Object>> rs=q.flush().join();
+			assertEquals(20,rs.size());
+			for (int i=0; i<20; i++) {
+				assertEquals((long)(i+1),rs.get(i).getValue());
+			}
+			assertEquals(0L,peer.getSequenceErrors());
+			assertEquals(20L,(long)peer.getSequence(convex.getAddress().longValue()));
+			assertEquals(0,q.flush().join().size());
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testPartialFailure() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			PresignedQueue q=convex.presignedQueue();
+			q.prepareAsync(transactions(5,2)).join();
+
+			// later transactions are not submitted after a failure
+			List<Outcome<Object>> rs=q.flush().join();
+			assertEquals(5,rs.size());
+			assertEquals(1L,rs.get(0).getValue());
+			assertEquals(2L,rs.get(1).getValue());
+			assertEquals("ASSERT",rs.get(2).getErrorCode());
+			assertEquals(Outcome.CANCELLED,rs.get(3).getErrorCode());
+			assertEquals(Outcome.CANCELLED,rs.get(4).getErrorCode());
+			assertEquals(3L,(long)peer.getSequence(convex.getAddress().longValue()));
+			assertEquals(3L,peer.getRequestCount("/api/v1/transaction/submit"));
+
+			// the sequence number is queried again, so the next batch is valid
+			q.prepareAsync(transactions(2,-1)).join();
+			rs=q.flush().join();
+			assertEquals(4L,rs.get(0).getValue());
+			assertEquals(5L,rs.get(1).getValue());
+			assertEquals(0L,peer.getSequenceErrors());
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testSequenceQueryAsync() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay("/api/v1/accounts/", 500);
+			PresignedQueue q=convex.presignedQueue();
+
+			// the unknown sequence number is queried without blocking or holding the Convex lock
+			long start=System.currentTimeMillis();
+			CompletableFuture<Outcome<Integer>> f1=q.prepareAsync(transactions(3,-1));
+			CompletableFuture<Outcome<Integer>> f2=q.prepareAsync(transactions(3,-1));
+			convex.setJournal(null);
+			assertTrue(System.currentTimeMillis()-start<250);
+			assertFalse(f1.isDone());
+
+			// concurrent reservations get separate blocks of sequence numbers
+			assertEquals(3,(int)f1.get(5, TimeUnit.SECONDS).getValue());
+			assertEquals(3,(int)f2.get(5, TimeUnit.SECONDS).getValue());
+			List<Outcome<Object>> rs=q.flush().join();
+			for (int i=0; i<6; i++) {
+				assertEquals((long)(i+1),rs.get(i).getValue());
+			}
+			assertEquals(0L,peer.getSequenceErrors());
+		} finally {
+			peer.close();
+		}
+	}
+}
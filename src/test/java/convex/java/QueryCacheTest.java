@@ -0,0 +1,142 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+
+public class QueryCacheTest {
+	private static final String URL="http://localhost:8080";
+	private static final String QUERY="/api/v1/query";
+
+	private static Map<String,Object> result(Object value) {
+		HashMap<String,Object> r=new HashMap<>();
+		r.put("value", value);
+		return r;
+	}
+
+	private static CompletableFuture<Outcome<Map<String,Object>>> load(Object value) {
+		return CompletableFuture.completedFuture(Outcome.of(result(value)));
+	}
+
+	@Test public void testNormalise() {
+		assertEquals("(+ 1 2)",QueryCache.normalise("  (+ 1,\n\t 2) ; add"));
+		assertEquals("(str \"a  , b\")",QueryCache.normalise("(str   \"a  , b\")"));
+		assertEquals("(str \"\\\" ;x\")",QueryCache.normalise("(str \"\\\" ;x\")"));
+		assertEquals(QueryCache.key(URL,Address.create(12),"(balance #12)"),QueryCache.key(URL,Address.create(12),"(balance   #12)"));
+		assertFalse(QueryCache.key(URL,Address.create(12),"(balance #12)").equals(QueryCache.key(URL,Address.create(13),"(balance #12)")));
+		assertFalse(QueryCache.key(URL,Address.create(12),"(balance #12)").equals(QueryCache.key("http://other:8080",Address.create(12),"(balance #12)")));
+	}
+
+	@Test public void testHitsAndErrors() {
+		QueryCache cache=new QueryCache(100,1000000,60000);
+		Address a=Address.create(12);
+		AtomicInteger loads=new AtomicInteger();
+		CompletableFuture<Outcome<Map<String,Object>>> pending=new CompletableFuture<>();
+
+		// concurrent requests share the same load
+		CompletableFuture<Outcome<Map<String,Object>>> f1=cache.get(URL,a,"(foo)",CachePolicy.DEFAULT,()->{loads.incrementAndGet(); return pending;});
+		CompletableFuture<Outcome<Map<String,Object>>> f2=cache.get(URL,a,"(foo)",CachePolicy.DEFAULT,()->{loads.incrementAndGet(); return pending;});
+		assertFalse(f1.isDone());
+		pending.complete(Outcome.of(result("bar")));
+		assertEquals("bar",f1.join().getValue().get("value"));
+		assertEquals("bar",f2.join().getValue().get("value"));
+		assertEquals(1,loads.get());
+		assertEquals(1L,cache.getHitCount());
+		assertEquals(1L,cache.getMissCount());
+		assertTrue(cache.getEstimatedBytes()>QueryCache.ENTRY_OVERHEAD);
+
+		// errors are not cached, including CVM errors
+		cache.get(URL,a,"(fail)",CachePolicy.DEFAULT,()->CompletableFuture.completedFuture(Outcome.error(Outcome.IO,"Failed")));
+		assertEquals(1,cache.size());
+		Map<String,Object> cvmError=result("Missing");
+		cvmError.put("errorCode", "NOBODY");
+		Outcome<Map<String,Object>> o=cache.get(URL,a,"(fail)",CachePolicy.DEFAULT,()->CompletableFuture.completedFuture(Outcome.of(cvmError))).join();
+		assertEquals("NOBODY",o.getValue().get("errorCode"));
+		assertEquals(1,cache.size());
+		o=cache.get(URL,a,"(fail)",CachePolicy.DEFAULT,()->load(1L)).join();
+		assertEquals(1L,o.getValue().get("value"));
+
+		// responses from different peers are cached separately
+		cache.get("http://other:8080",a,"(foo)",CachePolicy.DEFAULT,()->{loads.incrementAndGet(); return load("baz");});
+		assertEquals(2,loads.get());
+	}
+
+	@Test public void testEvictionAndExpiry() throws InterruptedException {
+		QueryCache cache=new QueryCache(2,1000000,60000);
+		Address a=Address.create(1);
+		for (int i=0; i<3; i++) {
+			cache.get(URL,a,"(q "+i+")",CachePolicy.DEFAULT,()->load(1L));
+		}
+		assertEquals(2,cache.size());
+		assertEquals(1L,cache.getEvictionCount());
+
+		cache.get(URL,a,"(short)",CachePolicy.ttl(1),()->load(1L));
+		Thread.sleep(10);
+		AtomicInteger loads=new AtomicInteger();
+		cache.get(URL,a,"(short)",CachePolicy.ttl(1),()->{loads.incrementAndGet(); return load(2L);});
+		assertEquals(1,loads.get());
+
+		// byte bound evicts entries that are too large
+		QueryCache small=new QueryCache(100,QueryCache.ENTRY_OVERHEAD*4,60000);
+		small.get(URL,a,"(big)",CachePolicy.DEFAULT,()->load(new String(new char[1000])));
+		assertEquals(0,small.size());
+		assertEquals(0L,small.getEstimatedBytes());
+	}
+
+	@Test public void testInvalidation() {
+		QueryCache cache=new QueryCache(100,1000000,60000);
+		Address a=Address.create(1);
+		cache.get(URL,a,"(a)",CachePolicy.DEFAULT.withScope("registry"),()->load(1L));
+		cache.get(URL,a,"(b)",CachePolicy.DEFAULT.stable(),()->load(1L));
+		cache.get(URL,a,"(c)",CachePolicy.DEFAULT.withScope("registry").stable(),()->load(1L));
+		assertEquals(3,cache.size());
+
+		assertEquals(1,cache.invalidateUnstable());
+		assertEquals(1,cache.invalidate("registry"));
+		assertEquals(1,cache.size());
+		cache.invalidateAll();
+		assertEquals(0,cache.size());
+		assertEquals(0L,cache.getEstimatedBytes());
+	}
+
+	@Test public void testConvexQuery() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=Convex.connect(peer.getURL());
+			convex.setAddress(Address.create(12));
+			QueryCache cache=new QueryCache(100,1000000,60000);
+			convex.setQueryCache(cache);
+
+			// cached responses have the same form as uncached ones
+			Map<String,Object> r=convex.query("(+ 1 2)",CachePolicy.DEFAULT);
+			assertEquals(convex.query("(+ 1 2)"),r);
+			assertEquals(r,convex.query("(+ 1  2)",CachePolicy.DEFAULT));
+			assertEquals(1L,cache.getHitCount());
+			assertEquals(2L,peer.getRequestCount(QUERY));
+
+			// CVM errors are returned in the response, and not cached
+			r=convex.query("(fail)",CachePolicy.DEFAULT);
+			assertEquals("ASSERT",r.get("errorCode"));
+			assertEquals("ASSERT",convex.queryOutcomeAsync("(fail)",CachePolicy.DEFAULT).join().getErrorCode());
+			assertEquals(4L,peer.getRequestCount(QUERY));
+
+			// without a policy or cache, queries go to the peer
+			convex.query("(+ 1 2)",null);
+			convex.setQueryCache(null);
+			assertEquals(3L,convex.queryOutcomeAsync("(+ 1 2)",CachePolicy.DEFAULT).join().getValue());
+			assertEquals(6L,peer.getRequestCount(QUERY));
+			assertEquals(1L,cache.getHitCount());
+		} finally {
+			peer.close();
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Tests that timed out and cancelled requests are aborted, freeing pooled connections. Each test
+ * holds more requests at the peer than the default connection pool allows, so a new request can
+ * only succeed promptly if the earlier exchanges were aborted.
+ */
+public class RequestAbortTest {
+	private static final String QUERY="/api/v1/query";
+	private static final String PREPARE="/api/v1/transaction/prepare";
+	private static final String SUBMIT="/api/v1/transaction/submit";
+
+	// much longer than any test is allowed to take
+	private static final long HOLD=10000;
+
+	/**
+	 * Checks that the connection pool can serve a new query promptly
+	 */
+	private static void checkPoolAvailable(StubPeer peer, Convex convex) throws Exception {
+		peer.setDelay(QUERY, 0);
+		peer.setDelay(PREPARE, 0);
+		peer.setDelay(SUBMIT, 0);
+		Outcome<Object> o=convex.queryOutcomeAsync("(+ 1 2)").get(2, TimeUnit.SECONDS);
+		assertEquals(3L,o.getValue());
+	}
+
+	@Test public void testQueryTimeout() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay(QUERY, HOLD);
+			long start=System.currentTimeMillis();
+			List<CompletableFuture<Outcome<Object>>> fs=new ArrayList<>();
+			for (int i=0; i<Convex.DEFAULT_MAX_CONNECTIONS_PER_PEER+1; i++) {
+				fs.add(convex.queryOutcomeAsync("(+ 1 2)",200));
+			}
+			for (CompletableFuture<Outcome<Object>> f: fs) {
+				assertEquals(Outcome.TIMEOUT,f.get(2, TimeUnit.SECONDS).getErrorCode());
+			}
+			assertTrue(System.currentTimeMillis()-start<2000);
+			checkPoolAvailable(peer,convex);
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testAddressLongMapTimeout() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay(QUERY, HOLD);
+			long start=System.currentTimeMillis();
+			long[] keys={convex.getAddress().longValue()};
+			Outcome<AddressLongMap> o=convex.queryAddressLongMapAsync("(mapv balance [#1])",keys,200).get(2, TimeUnit.SECONDS);
+			assertEquals(Outcome.TIMEOUT,o.getErrorCode());
+			assertTrue(System.currentTimeMillis()-start<2000);
+			checkPoolAvailable(peer,convex);
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testQueryCancel() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay(QUERY, HOLD);
+			List<CompletableFuture<Map<String,Object>>> fs=new ArrayList<>();
+			for (int i=0; i<Convex.DEFAULT_MAX_CONNECTIONS_PER_PEER; i++) {
+				fs.add(convex.queryAsync("(+ 1 2)"));
+			}
+			awaitRequests(peer,QUERY,Convex.DEFAULT_MAX_CONNECTIONS_PER_PEER);
+			for (CompletableFuture<Map<String,Object>> f: fs) {
+				assertTrue(f.cancel(true));
+			}
+			checkPoolAvailable(peer,convex);
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testTransactTimeoutDuringPrepare() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay(PREPARE, HOLD);
+			long start=System.currentTimeMillis();
+			List<CompletableFuture<Outcome<Object>>> fs=new ArrayList<>();
+			for (int i=0; i<Convex.DEFAULT_MAX_CONNECTIONS_PER_PEER; i++) {
+				fs.add(convex.transactOutcomeAsync("(def a 1)",300));
+			}
+			for (CompletableFuture<Outcome<Object>> f: fs) {
+				assertEquals(Outcome.TIMEOUT,f.get(2, TimeUnit.SECONDS).getErrorCode());
+			}
+			assertTrue(System.currentTimeMillis()-start<2000);
+			assertEquals(0L,peer.getRequestCount(SUBMIT));
+			checkPoolAvailable(peer,convex);
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testTransactTimeoutDuringSubmit() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			peer.setDelay(SUBMIT, HOLD);
+			long start=System.currentTimeMillis();
+			Outcome<Object> o=convex.transactOutcomeAsync("(def a 1)",500).get(2, TimeUnit.SECONDS);
+			assertEquals(Outcome.TIMEOUT,o.getErrorCode());
+			assertTrue(System.currentTimeMillis()-start<2000);
+			checkPoolAvailable(peer,convex);
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testTransactCancel() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			// one transaction held in prepare, one in submit, filling the pool
+			Convex c1=peer.connect();
+			Convex c2=peer.connect();
+			peer.setDelay(SUBMIT, HOLD);
+			CompletableFuture<Map<String,Object>> inSubmit=c1.transactAsync("(def a 1)");
+			awaitRequests(peer,SUBMIT,1);
+			peer.setDelay(PREPARE, HOLD);
+			CompletableFuture<Map<String,Object>> inPrepare=c2.transactAsync("(def a 1)");
+			awaitRequests(peer,PREPARE,2);
+
+			assertTrue(inSubmit.cancel(true));
+			assertTrue(inPrepare.cancel(true));
+			checkPoolAvailable(peer,c1);
+		} finally {
+			peer.close();
+		}
+	}
+
+	/**
+	 * Waits until the peer has started handling a number of requests to an endpoint
+	 */
+	private static void awaitRequests(StubPeer peer, String path, long n) throws InterruptedException {
+		long deadline=System.currentTimeMillis()+2000;
+		while (peer.getRequestCount(path)<n) {
+			if (System.currentTimeMillis()>deadline) throw new AssertionError("Requests not received: "+path);
+			Thread.sleep(5);
+		}
+	}
+}
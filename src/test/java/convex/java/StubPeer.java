@@ -0,0 +1,352 @@
+package convex.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import convex.core.crypto.AKeyPair;
+
+/**
+ * Minimal local stand-in for a peer REST API server.
+ *
+ * Implements just enough of the /api/v1 endpoints for the client to create accounts, run queries
+ * and complete the prepare / submit transaction cycle, with an optional fixed service time. Useful
+ * for measuring client overhead and for smoke testing load scenarios without a real network.
+ *
+ * Sequence numbers are tracked per Account as on a real peer: prepare assigns the next unused
+ * sequence number unless one is given, and submit rejects a transaction with a SEQUENCE error
+ * unless it is the next in order for its Account. Accepted transactions return their sequence
+ * number, except that source containing "(fail" returns a CVM error (still consuming the
+ * sequence number) and token deployments return new token Addresses.
+ *
+ * Queries return 3, except for the batched Account and token balance queries used by the client,
+ * and source containing "(fail" which returns a CVM error.
+ *
+ * Shared by the client unit tests and the example load generator.
+ */
+public class StubPeer {
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final long serviceMillis;
+	private final ConcurrentHashMap<String,Long> delays=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String,AtomicLong> counts=new ConcurrentHashMap<>();
+
+	private final AtomicLong nextAddress=new AtomicLong(1000);
+	private final ConcurrentHashMap<Long,Long> sequences=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Long,Long> balances=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String,Long> tokenBalances=new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String,Prepared> prepared=new ConcurrentHashMap<>();
+	private final AtomicLong sequenceErrors=new AtomicLong();
+	private volatile boolean prepareSequence=true;
+
+	private static final Pattern ADDRESS=Pattern.compile("#(\\d+)");
+	private static final Pattern TOKEN_BALANCE=Pattern.compile("fungible/balance #(\\d+) a\\)");
+	private static final Pattern SINGLE_BALANCE=Pattern.compile("fungible/balance #(\\d+) #(\\d+)\\)");
+	private static final Pattern BUILD_TOKEN=Pattern.compile("fungible/build-token");
+	private static final Pattern DEPLOY_BATCH=Pattern.compile("\\(import convex.fungible :as fungible\\)\\s*\\[");
+
+	private static final class Prepared {
+		final long address;
+		final long sequence;
+		final String source;
+
+		Prepared(long address, long sequence, String source) {
+			this.address=address;
+			this.sequence=sequence;
+			this.source=source;
+		}
+	}
+
+	private StubPeer(int port, long serviceMillis) throws IOException {
+		this.serviceMillis=serviceMillis;
+		this.server=HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		this.executor=Executors.newCachedThreadPool(r->{
+			Thread t=new Thread(r,"StubPeer handler");
+			t.setDaemon(true);
+			return t;
+		});
+		server.setExecutor(executor);
+		server.createContext("/api/v1/createAccount", ex->respond(ex,createAccount()));
+		server.createContext("/api/v1/faucet", ex->respond(ex,faucet(ex)));
+		server.createContext("/api/v1/accounts/", ex->respond(ex,account(ex)));
+		server.createContext("/api/v1/query", ex->respond(ex,query(ex)));
+		server.createContext("/api/v1/transaction/prepare", ex->respond(ex,prepare(ex)));
+		server.createContext("/api/v1/transaction/submit", ex->respond(ex,submit(ex)));
+	}
+
+	/**
+	 * Starts a stub peer listening on localhost
+	 * @param port Port to listen on, or 0 for any free port
+	 * @param serviceMillis Artificial service time added to every request, in milliseconds
+	 * @return Running StubPeer instance
+	 * @throws IOException If the server socket cannot be opened
+	 */
+	public static StubPeer start(int port, long serviceMillis) throws IOException {
+		StubPeer peer=new StubPeer(port,serviceMillis);
+		peer.server.start();
+		return peer;
+	}
+
+	/**
+	 * Connects to this stub peer with a newly created Account and key pair
+	 * @return Convex instance ready to transact
+	 */
+	public Convex connect() {
+		Convex convex=Convex.connect(getURL());
+		AKeyPair kp=AKeyPair.generate();
+		convex.setAddress(convex.createAccount(kp));
+		convex.setKeyPair(kp);
+		return convex;
+	}
+
+	/**
+	 * Gets the base URL of this stub peer, suitable for Convex.connect(...)
+	 * @return URL String
+	 */
+	public String getURL() {
+		return "http://localhost:"+server.getAddress().getPort();
+	}
+
+	/**
+	 * Sets an additional service time for one endpoint, e.g. to hold requests in flight
+	 * @param path Endpoint path, e.g. "/api/v1/query"
+	 * @param millis Additional service time in milliseconds, or 0 to remove
+	 */
+	public void setDelay(String path, long millis) {
+		if (millis>0) {
+			delays.put(path, millis);
+		} else {
+			delays.remove(path);
+		}
+	}
+
+	/**
+	 * Gets the number of requests received by one endpoint
+	 * @param path Endpoint path, e.g. "/api/v1/query"
+	 * @return Number of requests received
+	 */
+	public long getRequestCount(String path) {
+		AtomicLong n=counts.get(path);
+		return (n==null)?0:n.get();
+	}
+
+	/**
+	 * Gets the sequence number of the last transaction accepted for an Account
+	 * @param address Long value of Account Address
+	 * @return Sequence number, or null if the Account does not exist
+	 */
+	public Long getSequence(long address) {
+		return sequences.get(address);
+	}
+
+	/**
+	 * Gets the number of transactions rejected because they were submitted out of sequence
+	 * @return Number of SEQUENCE errors
+	 */
+	public long getSequenceErrors() {
+		return sequenceErrors.get();
+	}
+
+	/**
+	 * Sets the Convex coin balance of an Account, creating it if necessary
+	 * @param address Long value of Account Address
+	 * @param balance New balance
+	 */
+	public void setBalance(long address, long balance) {
+		sequences.putIfAbsent(address, 0L);
+		balances.put(address, balance);
+	}
+
+	/**
+	 * Sets whether prepare responses include the sequence number of the transaction, as they
+	 * may not for some peer versions
+	 * @param include true to include the sequence number (the default), false to omit it
+	 */
+	public void setPrepareSequence(boolean include) {
+		prepareSequence=include;
+	}
+
+	/**
+	 * Sets the balance of a fungible token for a holder
+	 * @param token Long value of token Address
+	 * @param holder Long value of holder Address
+	 * @param balance New balance
+	 */
+	public void setTokenBalance(long token, long holder, long balance) {
+		tokenBalances.put(token+"/"+holder, balance);
+	}
+
+	/**
+	 * Stops this stub peer
+	 */
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private Map<String,Object> createAccount() {
+		long a=nextAddress.getAndIncrement();
+		setBalance(a, 1000000000L);
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("address", "#"+a);
+		return m;
+	}
+
+	private Map<String,Object> faucet(HttpExchange ex) throws IOException {
+		Map<String,Object> req=JSON.parse(readBody(ex));
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("address", req.get("address"));
+		m.put("amount", req.get("amount"));
+		return m;
+	}
+
+	private Map<String,Object> account(HttpExchange ex) {
+		String path=ex.getRequestURI().getPath();
+		long a=Long.parseLong(path.substring(path.lastIndexOf('/')+1));
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("sequence", sequences.get(a));
+		m.put("balance", balances.get(a));
+		m.put("memorySize", 0L);
+		return m;
+	}
+
+	private Map<String,Object> query(HttpExchange ex) throws IOException {
+		Map<String,Object> req=JSON.parse(readBody(ex));
+		String source=(String)req.get("source");
+		if (source.contains("(account a)")) {
+			// batched Account query: [balance sequence] or nil for each Address
+			ArrayList<Object> result=new ArrayList<>();
+			for (long a: addresses(source)) {
+				Long seq=sequences.get(a);
+				result.add((seq==null)?null:List.of(balances.getOrDefault(a, 0L),seq));
+			}
+			return value(result);
+		}
+		Matcher m=TOKEN_BALANCE.matcher(source);
+		if (m.find()) {
+			// batched token balance query, with the token Address first
+			List<Long> as=addresses(source);
+			ArrayList<Object> result=new ArrayList<>();
+			for (long h: as.subList(1, as.size())) {
+				result.add(tokenBalances.getOrDefault(as.get(0)+"/"+h, 0L));
+			}
+			return value(result);
+		}
+		m=SINGLE_BALANCE.matcher(source);
+		if (m.find()) {
+			return value(tokenBalances.getOrDefault(m.group(1)+"/"+m.group(2), 0L));
+		}
+		if (source.contains("(fail")) return error("ASSERT","Query failed");
+		return value(3L);
+	}
+
+	private static List<Long> addresses(String source) {
+		ArrayList<Long> result=new ArrayList<>();
+		Matcher m=ADDRESS.matcher(source);
+		while (m.find()) {
+			result.add(Long.parseLong(m.group(1)));
+		}
+		return result;
+	}
+
+	private Map<String,Object> prepare(HttpExchange ex) throws IOException {
+		Map<String,Object> req=JSON.parse(readBody(ex));
+		long address=(Long)req.get("address");
+		Long seq=(Long)req.get("sequence");
+		if (seq==null) seq=sequences.getOrDefault(address, 0L)+1;
+
+		byte[] bs=new byte[32];
+		ThreadLocalRandom.current().nextBytes(bs);
+		StringBuilder sb=new StringBuilder(64);
+		for (byte b: bs) {
+			sb.append(Character.forDigit((b>>4)&0xF, 16));
+			sb.append(Character.forDigit(b&0xF, 16));
+		}
+		String hash=sb.toString();
+		prepared.put(hash, new Prepared(address,seq,(String)req.get("source")));
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("hash", hash);
+		if (prepareSequence) m.put("sequence", seq);
+		return m;
+	}
+
+	private Map<String,Object> submit(HttpExchange ex) throws IOException {
+		Map<String,Object> req=JSON.parse(readBody(ex));
+		Prepared p=prepared.remove(req.get("hash"));
+		if (p==null) return error("ARGUMENT","Unknown transaction hash");
+		synchronized(this) {
+			long current=sequences.getOrDefault(p.address, 0L);
+			if (p.sequence!=current+1) {
+				sequenceErrors.incrementAndGet();
+				return error("SEQUENCE","Expected sequence "+(current+1)+" but got "+p.sequence);
+			}
+			sequences.put(p.address, p.sequence);
+		}
+		if (p.source.contains("(fail")) return error("ASSERT","Transaction failed");
+		Matcher m=BUILD_TOKEN.matcher(p.source);
+		if (m.find()) {
+			// a vector of deployments returns a vector of Addresses, otherwise a single Address
+			if (!DEPLOY_BATCH.matcher(p.source).find()) return value(nextAddress.getAndIncrement());
+			ArrayList<Object> tokens=new ArrayList<>();
+			do {
+				tokens.add(nextAddress.getAndIncrement());
+			} while (m.find());
+			return value(tokens);
+		}
+		return value(p.sequence);
+	}
+
+	private static Map<String,Object> error(String code, Object value) {
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("errorCode", code);
+		m.put("value", value);
+		return m;
+	}
+
+	private static Map<String,Object> value(Object value) {
+		HashMap<String,Object> m=new HashMap<>();
+		m.put("value", value);
+		return m;
+	}
+
+	private static String readBody(HttpExchange ex) throws IOException {
+		try (InputStream is=ex.getRequestBody()) {
+			return new String(is.readAllBytes(),StandardCharsets.UTF_8);
+		}
+	}
+
+	private void respond(HttpExchange ex, Map<String,Object> result) throws IOException {
+		try {
+			String path=ex.getHttpContext().getPath();
+			counts.computeIfAbsent(path, k->new AtomicLong()).incrementAndGet();
+			long delay=serviceMillis+delays.getOrDefault(path, 0L);
+			if (delay>0) Thread.sleep(delay);
+			byte[] bs=JSON.toString(result).getBytes(StandardCharsets.UTF_8);
+			ex.getResponseHeaders().add("content-type", "application/json");
+			ex.sendResponseHeaders(200, bs.length);
+			try (OutputStream os=ex.getResponseBody()) {
+				os.write(bs);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			ex.close();
+		}
+	}
+}
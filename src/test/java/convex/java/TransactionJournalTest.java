@@ -0,0 +1,133 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+import convex.core.data.Hash;
+
+public class TransactionJournalTest {
+
+	private static Hash hash(int i) {
+		byte[] bs=new byte[32];
+		bs[0]=(byte)i;
+		bs[31]=(byte)(i>>8);
+		return Hash.wrap(bs);
+	}
+
+	@Test public void testReplay() throws IOException {
+		Path path=Files.createTempFile("journal", ".dat");
+		Address a=Address.create(11);
+		Address b=Address.create(12);
+
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			assertNull(j.getSequence(a));
+			j.recordSequence(a, 5);
+			j.recordTransaction(a, 6, hash(1), TransactionJournal.PREPARED);
+			j.recordTransaction(a, 6, hash(1), TransactionJournal.SUBMITTED);
+			j.recordTransaction(a, 6, hash(1), TransactionJournal.COMPLETED);
+			j.recordTransaction(b, 3, hash(2), TransactionJournal.SUBMITTED);
+			assertEquals(6L,(long)j.getSequence(a));
+		}
+
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			assertEquals(6L,(long)j.getSequence(a));
+			// a submitted transaction may never have reached the network
+			assertNull(j.getSequence(b));
+			List<TransactionJournal.Entry> pending=j.getPendingTransactions();
+			assertEquals(1,pending.size());
+			assertEquals(hash(2),pending.get(0).getHash());
+			assertEquals(b,pending.get(0).getAddress());
+		}
+		Files.deleteIfExists(path);
+	}
+
+	@Test public void testInFlightSequence() throws IOException {
+		Path path=Files.createTempFile("journal", ".dat");
+		Address a=Address.create(14);
+
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			j.recordSequence(a, 7);
+			j.recordTransaction(a, 8, hash(1), TransactionJournal.PREPARED);
+			j.recordTransaction(a, 9, hash(2), TransactionJournal.PREPARED);
+			j.recordTransaction(a, 8, hash(1), TransactionJournal.SUBMITTED);
+			assertEquals(7L,(long)j.getSequence(a));
+
+			// a rejected transaction is no longer pending, but does not advance the sequence
+			j.recordTransaction(a, 8, hash(1), TransactionJournal.REJECTED);
+			assertEquals(7L,(long)j.getSequence(a));
+			assertEquals(1,j.getPendingTransactions().size());
+		}
+
+		// simulated crash between prepare and submit
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			assertEquals(7L,(long)j.getSequence(a));
+			List<TransactionJournal.Entry> pending=j.getPendingTransactions();
+			assertEquals(1,pending.size());
+			assertEquals(9L,pending.get(0).getSequence());
+			assertEquals(TransactionJournal.PREPARED,pending.get(0).getStatus());
+			j.recordTransaction(a, 9, hash(2), TransactionJournal.FAILED);
+			assertEquals(9L,(long)j.getSequence(a));
+		}
+		Files.deleteIfExists(path);
+	}
+
+	@Test public void testCheckpoint() throws IOException {
+		Path path=Files.createTempFile("journal", ".dat");
+		Address a=Address.create(13);
+
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			// enough records to force growth or compaction of the initial file
+			for (int i=1; i<=10000; i++) {
+				j.recordTransaction(a, i, hash(i), TransactionJournal.PREPARED);
+				j.recordTransaction(a, i, hash(i), TransactionJournal.COMPLETED);
+			}
+			assertEquals(10000L,(long)j.getSequence(a));
+			j.checkpoint();
+			assertEquals(1L,j.getRecordCount());
+			j.recordTransaction(a, 10001, hash(7), TransactionJournal.SUBMITTED);
+		}
+
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			assertEquals(10000L,(long)j.getSequence(a));
+			assertEquals(2L,j.getRecordCount());
+			assertEquals(1,j.getPendingTransactions().size());
+		}
+		Files.deleteIfExists(path);
+	}
+
+	@Test public void testConvexJournal() throws IOException {
+		Path path=Files.createTempFile("journal", ".dat");
+		StubPeer peer=StubPeer.start(0, 0);
+		try (TransactionJournal j=TransactionJournal.open(path)) {
+			Convex convex=peer.connect();
+			Address a=convex.getAddress();
+			convex.setJournal(j);
+
+			assertEquals(1L,convex.transactOutcome("(def a 1)").getValue());
+			assertEquals(1L,(long)j.getSequence(a));
+			// a CVM error still consumes the sequence number
+			assertEquals("ASSERT",convex.transactOutcome("(fail)").getErrorCode());
+			assertEquals(2L,(long)j.getSequence(a));
+			assertTrue(j.getPendingTransactions().isEmpty());
+
+			// not journalled if the peer doesn't give the sequence number
+			long records=j.getRecordCount();
+			peer.setPrepareSequence(false);
+			assertEquals(3L,convex.transactOutcome("(def b 1)").getValue());
+			assertEquals(records,j.getRecordCount());
+			assertEquals(2L,(long)j.getSequence(a));
+		} finally {
+			peer.close();
+		}
+		Files.deleteIfExists(path);
+	}
+}
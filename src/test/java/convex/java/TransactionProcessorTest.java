@@ -0,0 +1,213 @@
+package convex.java;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+
+public class TransactionProcessorTest {
+
+	/**
+	 * Publisher of a fixed list of transactions, honouring demand and recording requests
+	 */
+	private static final class ListPublisher implements Flow.Publisher<String> {
+		final List<String> items;
+		final ExecutorService executor=Executors.newSingleThreadExecutor();
+		volatile long totalRequested=0;
+		volatile int emitted=0;
+		volatile boolean cancelled=false;
+		long demand=0;
+		Flow.Subscriber<? super String> subscriber;
+
+		ListPublisher(List<String> items) {
+			this.items=items;
+		}
+
+		@Override
+		public void subscribe(Flow.Subscriber<? super String> s) {
+			subscriber=s;
+			s.onSubscribe(new Flow.Subscription() {
+				@Override public void request(long n) {
+					executor.execute(()->{
+						totalRequested+=n;
+						demand+=n;
+						emit();
+					});
+				}
+				@Override public void cancel() {
+					cancelled=true;
+				}
+			});
+		}
+
+		private void emit() {
+			while (!cancelled&&(demand>0)&&(emitted<items.size())) {
+				demand--;
+				subscriber.onNext(items.get(emitted++));
+			}
+			if (!cancelled&&(emitted==items.size())) {
+				cancelled=true;
+				subscriber.onComplete();
+			}
+		}
+	}
+
+	/**
+	 * Subscriber collecting results, requesting an initial number of results
+	 */
+	private static final class Collector implements Flow.Subscriber<Map<String,Object>> {
+		final List<Map<String,Object>> results=Collections.synchronizedList(new ArrayList<>());
+		final CountDownLatch done=new CountDownLatch(1);
+		final long initial;
+		volatile Flow.Subscription subscription;
+		volatile Throwable error;
+		volatile boolean complete;
+
+		Collector(long initial) {
+			this.initial=initial;
+		}
+
+		@Override public void onSubscribe(Flow.Subscription s) {
+			subscription=s;
+			s.request(initial);
+		}
+		@Override public void onNext(Map<String,Object> item) {
+			results.add(item);
+		}
+		@Override public void onError(Throwable e) {
+			error=e;
+			done.countDown();
+		}
+		@Override public void onComplete() {
+			complete=true;
+			done.countDown();
+		}
+	}
+
+	private static List<String> transactions(int n) {
+		ArrayList<String> result=new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			result.add((i==3)?"(fail)":"(def a "+i+")");
+		}
+		return result;
+	}
+
+	@Test public void testOrdering() throws Exception {
+		StubPeer peer=StubPeer.start(0, 5);
+		try {
+			Convex convex=peer.connect();
+			TransactionProcessor p=convex.transactionProcessor(8);
+			ListPublisher pub=new ListPublisher(transactions(20));
+			Collector c=new Collector(Long.MAX_VALUE);
+			pub.subscribe(p);
+			p.subscribe(c);
+			assertTrue(c.done.await(10, TimeUnit.SECONDS));
+			assertNull(c.error);
+			assertTrue(c.complete);
+
+			// results in submission order, with a CVM error emitted as a normal result
+			assertEquals(20,c.results.size());
+			for (int i=0; i<20; i++) {
+				Map<String,Object> r=c.results.get(i);
+				if (i==3) {
+					assertEquals("ASSERT",r.get("errorCode"));
+				} else {
+					assertEquals((long)(i+1),r.get("value"));
+				}
+			}
+			assertEquals(0L,peer.getSequenceErrors());
+			assertEquals(20L,(long)peer.getSequence(convex.getAddress().longValue()));
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testBackpressure() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			int maxInFlight=3;
+			TransactionProcessor p=convex.transactionProcessor(maxInFlight);
+			ListPublisher pub=new ListPublisher(transactions(20));
+			Collector c=new Collector(1);
+			pub.subscribe(p);
+			p.subscribe(c);
+
+			// a slow consumer limits transactions to those delivered plus maxInFlight
+			Thread.sleep(500);
+			assertEquals(1,c.results.size());
+			assertTrue(pub.totalRequested<=1+maxInFlight);
+			assertTrue(pub.emitted<=1+maxInFlight);
+
+			c.subscription.request(Long.MAX_VALUE);
+			assertTrue(c.done.await(10, TimeUnit.SECONDS));
+			assertTrue(c.complete);
+			assertEquals(20,c.results.size());
+			assertEquals(0L,peer.getSequenceErrors());
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testCancel() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			TransactionProcessor p=convex.transactionProcessor(4);
+			ListPublisher pub=new ListPublisher(transactions(20));
+			Collector c=new Collector(2);
+			pub.subscribe(p);
+			p.subscribe(c);
+			long deadline=System.currentTimeMillis()+5000;
+			while (c.results.size()<2) {
+				assertTrue(System.currentTimeMillis()<deadline);
+				Thread.sleep(5);
+			}
+
+			c.subscription.cancel();
+			assertTrue(pub.cancelled);
+			int delivered=c.results.size();
+			Thread.sleep(200);
+			assertEquals(delivered,c.results.size());
+			assertTrue(pub.emitted<20);
+			assertEquals(1L,c.done.getCount());
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testErrorTermination() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			convex.setTimeout(300);
+			peer.setDelay("/api/v1/transaction/submit", 5000);
+			TransactionProcessor p=convex.transactionProcessor(4);
+			ListPublisher pub=new ListPublisher(transactions(20));
+			Collector c=new Collector(Long.MAX_VALUE);
+			pub.subscribe(p);
+			p.subscribe(c);
+
+			assertTrue(c.done.await(5, TimeUnit.SECONDS));
+			assertTrue(c.error instanceof TimeoutException);
+			assertTrue(c.results.isEmpty());
+			assertTrue(pub.cancelled);
+			assertTrue(pub.emitted<20);
+		} finally {
+			peer.close();
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package convex.java.asset;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+import convex.java.Outcome;
+
+public class BaseAssetTest {
+
+	/**
+	 * Asset implementing only the blocking methods, as subclasses written before the async API
+	 */
+	private static final class BlockingAsset extends BaseAsset<Long> {
+		BlockingAsset() {
+			super(null);
+		}
+
+		@Override public Long getBalance() {
+			throw new AssertionError("Blocking call");
+		}
+
+		@Override public Long getBalance(Address holder) {
+			throw new AssertionError("Blocking call");
+		}
+	}
+
+	@Test public void testDefaultAsync() {
+		BlockingAsset asset=new BlockingAsset();
+
+		// defaults fail immediately rather than blocking a thread
+		CompletableFuture<Long> f=asset.getBalanceAsync(Address.create(1));
+		assertTrue(f.isCompletedExceptionally());
+		try {
+			f.get();
+			throw new AssertionError("Expected failure");
+		} catch (ExecutionException | InterruptedException e) {
+			assertTrue(e.getCause() instanceof UnsupportedOperationException);
+		}
+		assertTrue(asset.getBalanceAsync().isCompletedExceptionally());
+
+		Outcome<Long> o=asset.getBalanceOutcomeAsync(Address.create(1)).join();
+		assertTrue(o.isError());
+	}
+}
@@ -0,0 +1,67 @@
+package convex.java.asset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.Address;
+import convex.java.AddressLongMap;
+import convex.java.Convex;
+import convex.java.Outcome;
+import convex.java.StubPeer;
+
+public class FungibleTest {
+	private static final String QUERY="/api/v1/query";
+
+	@Test public void testGetBalances() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			Fungible token=Fungible.create(convex, Address.create(77));
+
+			int batches=3*Convex.getMaxConnectionsPerPeer();
+			long[] holders=new long[batches*Fungible.BALANCE_BATCH_SIZE-10];
+			for (int i=0; i<holders.length; i++) {
+				holders[i]=100+i;
+				peer.setTokenBalance(77, holders[i], i);
+			}
+
+			// each batch takes most of the timeout, so batches must not queue for connections
+			peer.setDelay(QUERY, 300);
+			convex.setTimeout(500);
+			long start=System.currentTimeMillis();
+			Outcome<AddressLongMap> o=token.getBalancesOutcomeAsync(holders).join();
+			assertTrue(!o.isError(),"Error: "+o);
+			assertTrue(System.currentTimeMillis()-start>=3*300);
+			AddressLongMap m=o.getValue();
+			assertEquals(holders.length,m.size());
+			for (int i=0; i<holders.length; i++) {
+				assertEquals((long)i,m.get(holders[i], -1));
+			}
+			assertEquals((long)batches,peer.getRequestCount(QUERY));
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testGetBalanceAsync() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			Address a=convex.getAddress();
+			Fungible token=Fungible.create(convex, Address.create(77));
+			peer.setTokenBalance(77, a.longValue(), 123);
+			peer.setTokenBalance(77, 5, 7);
+
+			assertEquals(123L,(long)token.getBalanceAsync().get(2, TimeUnit.SECONDS));
+			assertEquals(7L,(long)token.getBalanceAsync(Address.create(5)).get(2, TimeUnit.SECONDS));
+			assertEquals(7L,(long)token.getBalanceOutcomeAsync(Address.create(5)).get(2, TimeUnit.SECONDS).getValue());
+			assertEquals(123L,(long)token.getBalance());
+		} finally {
+			peer.close();
+		}
+	}
+}
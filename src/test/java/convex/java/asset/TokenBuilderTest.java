@@ -0,0 +1,142 @@
+package convex.java.asset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import convex.core.data.ACell;
+import convex.core.data.AMap;
+import convex.core.data.Keyword;
+import convex.core.data.Maps;
+import convex.core.data.Strings;
+import convex.core.data.prim.CVMLong;
+import convex.java.Convex;
+import convex.java.Outcome;
+import convex.java.StubPeer;
+
+public class TokenBuilderTest {
+
+	private static List<TokenBuilder> builders(int n) {
+		ArrayList<TokenBuilder> result=new ArrayList<>();
+		for (int i=0; i<n; i++) {
+			result.add(new TokenBuilder().withSupply(1000+i));
+		}
+		return result;
+	}
+
+	private static int countTokens(String code) {
+		int n=0;
+		for (int i=code.indexOf("fungible/build-token"); i>=0; i=code.indexOf("fungible/build-token", i+1)) {
+			n++;
+		}
+		return n;
+	}
+
+	@Test public void testGenerateCodeCount() {
+		assertEquals(0,TokenBuilder.generateCode(new ArrayList<>()).size());
+
+		List<String> codes=TokenBuilder.generateCode(builders(45));
+		assertEquals(3,codes.size());
+		assertEquals(TokenBuilder.MAX_BATCH_TOKENS,countTokens(codes.get(0)));
+		assertEquals(TokenBuilder.MAX_BATCH_TOKENS,countTokens(codes.get(1)));
+		assertEquals(5,countTokens(codes.get(2)));
+		for (String code: codes) {
+			assertTrue(code.startsWith("(do (import convex.fungible :as fungible)"));
+			assertTrue(code.endsWith("])"));
+		}
+		assertTrue(codes.get(2).contains("1044"));
+	}
+
+	@Test public void testGenerateCodeSize() {
+		AMap<Keyword,ACell> config=Maps.empty();
+		for (int i=0; i<300; i++) {
+			config=config.assoc(Keyword.create("key"+i), CVMLong.create(i));
+		}
+		ArrayList<TokenBuilder> bs=new ArrayList<>();
+		for (int i=0; i<10; i++) {
+			bs.add(new TokenBuilder(config));
+		}
+
+		// batches are limited by size before reaching the token limit
+		List<String> codes=TokenBuilder.generateCode(bs);
+		assertTrue(codes.size()>1);
+		int total=0;
+		for (String code: codes) {
+			assertTrue(code.length()<=TokenBuilder.MAX_BATCH_CODE_SIZE);
+			assertTrue(countTokens(code)<TokenBuilder.MAX_BATCH_TOKENS);
+			total+=countTokens(code);
+		}
+		assertEquals(10,total);
+	}
+
+	@Test public void testDeployAll() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			List<Outcome<List<Fungible>>> outcomes=TokenBuilder.deployAllOutcomeAsync(convex, builders(45)).join();
+			assertEquals(3,outcomes.size());
+			assertEquals(20,outcomes.get(0).getValue().size());
+			assertEquals(20,outcomes.get(1).getValue().size());
+			assertEquals(5,outcomes.get(2).getValue().size());
+			assertEquals(0L,peer.getSequenceErrors());
+
+			// tokens in the order of the builders
+			List<Fungible> tokens=TokenBuilder.deployAll(convex, builders(25));
+			assertEquals(25,tokens.size());
+			for (int i=1; i<25; i++) {
+				assertEquals(tokens.get(i-1).getAddress().longValue()+1,tokens.get(i).getAddress().longValue());
+			}
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testDeploy() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			Fungible t1=new TokenBuilder().withSupply(100).deployAsync(convex).get(2, TimeUnit.SECONDS);
+			Outcome<Fungible> t2=new TokenBuilder().withSupply(100).deployOutcomeAsync(convex).get(2, TimeUnit.SECONDS);
+			Fungible t3=new TokenBuilder().withSupply(100).deploy(convex);
+			assertEquals(t1.getAddress().longValue()+1,t2.getValue().getAddress().longValue());
+			assertEquals(t1.getAddress().longValue()+2,t3.getAddress().longValue());
+			assertEquals(0L,peer.getSequenceErrors());
+		} finally {
+			peer.close();
+		}
+	}
+
+	@Test public void testDeployAllFailure() throws Exception {
+		StubPeer peer=StubPeer.start(0, 0);
+		try {
+			Convex convex=peer.connect();
+			List<TokenBuilder> bs=builders(45);
+			// the peer fails any transaction containing this description
+			AMap<Keyword,ACell> failing=Maps.empty();
+			bs.set(25, new TokenBuilder(failing.assoc(Keyword.create("description"), Strings.create("(fail)"))));
+
+			// tokens from the first transaction are still returned
+			List<Outcome<List<Fungible>>> outcomes=TokenBuilder.deployAllOutcomeAsync(convex, bs).join();
+			assertEquals(3,outcomes.size());
+			assertEquals(20,outcomes.get(0).getValue().size());
+			assertEquals("ASSERT",outcomes.get(1).getErrorCode());
+			assertEquals(Outcome.CANCELLED,outcomes.get(2).getErrorCode());
+			assertEquals(0L,peer.getSequenceErrors());
+
+			// deployAll fails with an Error, not a CompletionException
+			try {
+				TokenBuilder.deployAll(convex, bs);
+				throw new AssertionError("Expected deployment failure");
+			} catch (Error e) {
+				assertTrue(e.getMessage().startsWith("Token deployment failed"));
+			}
+		} finally {
+			peer.close();
+		}
+	}
+}
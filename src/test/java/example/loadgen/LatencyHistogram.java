@@ -0,0 +1,96 @@
+package example.loadgen;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent log-linear latency histogram in the style of HdrHistogram.
+ *
+ * Values below 128 are recorded exactly. Larger values are recorded into buckets with
+ * 64 linear sub-buckets per power of two, giving a worst case relative error of around 1.5%
+ * over the whole range of non-negative long values with a fixed memory footprint.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS=6;
+	private static final int SUB_BUCKET_COUNT=1<<SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT=SUB_BUCKET_COUNT*2;
+	private static final int BUCKET_COUNT=LINEAR_LIMIT+(64-SUB_BUCKET_BITS)*SUB_BUCKET_COUNT;
+
+	private final AtomicLongArray counts=new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong total=new AtomicLong();
+	private final AtomicLong sum=new AtomicLong();
+	private final AtomicLong max=new AtomicLong();
+
+	/**
+	 * Records a single value
+	 * @param value Value to record, e.g. a latency in microseconds. Negative values are recorded as zero.
+	 */
+	public void record(long value) {
+		if (value<0) value=0;
+		counts.incrementAndGet(indexOf(value));
+		total.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Gets the total number of recorded values
+	 * @return Count of values
+	 */
+	public long getCount() {
+		return total.get();
+	}
+
+	/**
+	 * Gets the maximum recorded value
+	 * @return Maximum value, or 0 if no values recorded
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the mean of recorded values
+	 * @return Mean value, or 0 if no values recorded
+	 */
+	public double getMean() {
+		long n=total.get();
+		return (n==0)?0.0:((double)sum.get())/n;
+	}
+
+	/**
+	 * Gets the value at a given percentile. The result is the highest value equivalent to the
+	 * bucket containing the percentile, so it never under-reports latency.
+	 *
+	 * @param percentile Percentile in the range 0.0 to 100.0
+	 * @return Value at the given percentile, or 0 if no values recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long n=total.get();
+		if (n==0) return 0;
+		long target=(long)Math.ceil((Math.min(100.0, Math.max(0.0, percentile))/100.0)*n);
+		if (target<1) target=1;
+		long acc=0;
+		for (int i=0; i<BUCKET_COUNT; i++) {
+			acc+=counts.get(i);
+			if (acc>=target) return Math.min(highestValueOf(i),max.get());
+		}
+		return max.get();
+	}
+
+	static int indexOf(long value) {
+		if (value<LINEAR_LIMIT) return (int)value;
+		int shift=(63-Long.numberOfLeadingZeros(value))-SUB_BUCKET_BITS;
+		int sub=(int)(value>>>shift)-SUB_BUCKET_COUNT;
+		return LINEAR_LIMIT+(shift-1)*SUB_BUCKET_COUNT+sub;
+	}
+
+	static long highestValueOf(int index) {
+		if (index<LINEAR_LIMIT) return index;
+		int k=index-LINEAR_LIMIT;
+		int shift=(k/SUB_BUCKET_COUNT)+1;
+		long m=(k%SUB_BUCKET_COUNT)+SUB_BUCKET_COUNT;
+		long high=((m+1)<<shift)-1;
+		return (high<0)?Long.MAX_VALUE:high;
+	}
+}
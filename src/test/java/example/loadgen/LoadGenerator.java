@@ -0,0 +1,226 @@
+package example.loadgen;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import convex.core.crypto.AKeyPair;
+import convex.core.data.Address;
+import convex.java.Convex;
+import convex.java.StubPeer;
+
+/**
+ * Open-loop load generator for a Convex peer, driven through the client library.
+ *
+ * Operations are scheduled at a fixed arrival rate regardless of how quickly the peer responds.
+ * Latency is measured from the time each operation was <i>intended</i> to start, so queueing
+ * caused by a slow peer or a saturated client is included in the results rather than hidden
+ * (i.e. the measurements are corrected for coordinated omission).
+ *
+ * Transactions borrow an account from a pool for their duration, so that no two in-flight
+ * transactions share a sequence number. Queries may use any account.
+ *
+ * Usage: LoadGenerator [--option=value ...] with options:
+ * <pre>
+ *   --url=URL              Peer URL. If omitted, a local StubPeer is started
+ *   --rate=N               Target arrival rate in operations per second (default 200)
+ *   --duration=S           Test duration in seconds (default 10)
+ *   --warmup=S             Warm-up duration in seconds, not recorded (default 2)
+ *   --concurrency=N        Maximum operations in flight (default 64)
+ *   --connections=N        Size of HTTP connection pool, warmed up before the run (default 16)
+ *   --accounts=N           Size of account pool used for transactions (default 8)
+ *   --query-ratio=R        Fraction of operations that are queries, 0.0 to 1.0 (default 0.8)
+ *   --query=CODE           Convex Lisp source for queries (default "(+ 1 2)")
+ *   --transaction=CODE     Convex Lisp source for transactions (default "(def a 1)")
+ *   --funds=N              Faucet funds requested per pooled account (default 10000000)
+ *   --stub-latency=MS      Service time of the local StubPeer in milliseconds (default 0)
+ * </pre>
+ */
+public class LoadGenerator {
+	private final String url;
+	private final double rate;
+	private final long durationSecs;
+	private final long warmupSecs;
+	private final int concurrency;
+	private final int accountCount;
+	private final double queryRatio;
+	private final String queryCode;
+	private final String transactionCode;
+	private final long funds;
+	private final int connections;
+
+	private final LatencyHistogram queryLatency=new LatencyHistogram();
+	private final LatencyHistogram transactLatency=new LatencyHistogram();
+	private final AtomicLong errors=new AtomicLong();
+	private final AtomicLong issued=new AtomicLong();
+
+	private Convex[] accounts;
+	private BlockingQueue<Convex> accountPool;
+	private Semaphore inFlight;
+	private long elapsedNanos;
+
+	public LoadGenerator(Map<String,String> options) {
+		this.url=options.get("url");
+		this.rate=Double.parseDouble(options.getOrDefault("rate", "200"));
+		this.durationSecs=Long.parseLong(options.getOrDefault("duration", "10"));
+		this.warmupSecs=Long.parseLong(options.getOrDefault("warmup", "2"));
+		this.concurrency=Integer.parseInt(options.getOrDefault("concurrency", "64"));
+		this.accountCount=Integer.parseInt(options.getOrDefault("accounts", "8"));
+		this.queryRatio=Double.parseDouble(options.getOrDefault("query-ratio", "0.8"));
+		this.queryCode=options.getOrDefault("query", "(+ 1 2)");
+		this.transactionCode=options.getOrDefault("transaction", "(def a 1)");
+		this.funds=Long.parseLong(options.getOrDefault("funds", "10000000"));
+		this.connections=Integer.parseInt(options.getOrDefault("connections", "16"));
+		if (rate<=0) throw new IllegalArgumentException("rate must be positive");
+		if (concurrency<1) throw new IllegalArgumentException("concurrency must be at least 1");
+		if (connections<1) throw new IllegalArgumentException("connections must be at least 1");
+		if (accountCount<1) throw new IllegalArgumentException("accounts must be at least 1");
+		if ((queryRatio<0)||(queryRatio>1)) throw new IllegalArgumentException("query-ratio must be between 0.0 and 1.0");
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String,String> options=parseOptions(args);
+		StubPeer stub=null;
+		if (!options.containsKey("url")) {
+			stub=StubPeer.start(0, Long.parseLong(options.getOrDefault("stub-latency", "0")));
+			options.put("url", stub.getURL());
+			System.out.println("Started local stub peer at "+stub.getURL());
+		}
+
+		LoadGenerator gen=new LoadGenerator(options);
+		gen.setupAccounts();
+		gen.run();
+		gen.report();
+
+		if (stub!=null) stub.close();
+		System.exit(0);
+	}
+
+	static Map<String,String> parseOptions(String[] args) {
+		HashMap<String,String> options=new HashMap<>();
+		for (String arg: args) {
+			if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: "+arg);
+			int eq=arg.indexOf('=');
+			if (eq<0) throw new IllegalArgumentException("Expected --option=value but got: "+arg);
+			options.put(arg.substring(2,eq), arg.substring(eq+1));
+		}
+		return options;
+	}
+
+	/**
+	 * Creates and funds the pool of accounts used to generate load
+	 */
+	void setupAccounts() {
+		Convex.setConnectionPoolSize(connections, connections);
+		System.out.println("Creating "+accountCount+" accounts on "+url);
+		accounts=new Convex[accountCount];
+		accountPool=new ArrayBlockingQueue<>(accountCount);
+		for (int i=0; i<accountCount; i++) {
+			AKeyPair kp=AKeyPair.generate();
+			Convex convex=Convex.connect(url);
+			Address address=convex.createAccount(kp);
+			convex.setAddress(address);
+			convex.setKeyPair(kp);
+			if (funds>0) convex.faucet(address, funds);
+			accounts[i]=convex;
+			accountPool.add(convex);
+		}
+		inFlight=new Semaphore(concurrency);
+		int warmed=accounts[0].warmUp(connections).join();
+		System.out.println("Warmed up "+warmed+" connections");
+	}
+
+	/**
+	 * Runs the open-loop schedule for the warm-up period followed by the measured period
+	 * @throws InterruptedException If interrupted while waiting for capacity
+	 */
+	void run() throws InterruptedException {
+		long intervalNanos=(long)(1_000_000_000.0/rate);
+		long warmupNanos=TimeUnit.SECONDS.toNanos(warmupSecs);
+		long totalNanos=warmupNanos+TimeUnit.SECONDS.toNanos(durationSecs);
+
+		System.out.println("Running at "+rate+" ops/s for "+durationSecs+"s (+"+warmupSecs+"s warm-up), concurrency "+concurrency+", query ratio "+queryRatio);
+		long start=System.nanoTime();
+		long measureStart=start+warmupNanos;
+		for (long i=0; ; i++) {
+			long intended=start+i*intervalNanos;
+			if (intended-start>=totalNanos) break;
+
+			long wait=intended-System.nanoTime();
+			if (wait>0) LockSupport.parkNanos(wait);
+
+			// blocking here delays later operations, but their latency is still measured from
+			// the intended start time so the delay is reflected in the results
+			inFlight.acquire();
+			boolean measured=intended>=measureStart;
+			if (measured) issued.incrementAndGet();
+			if (ThreadLocalRandom.current().nextDouble()<queryRatio) {
+				Convex convex=accounts[(int)(i%accounts.length)];
+				track(convex.queryAsync(queryCode), intended, measured?queryLatency:null, null);
+			} else {
+				Convex convex=accountPool.take();
+				track(convex.transactAsync(transactionCode), intended, measured?transactLatency:null, convex);
+			}
+		}
+		long scheduled=System.nanoTime()-measureStart;
+
+		// drain all outstanding operations. Throughput is measured up to the end of the drain, so
+		// a peer that falls behind the schedule is not credited with work it completed late.
+		if (!inFlight.tryAcquire(concurrency, 60, TimeUnit.SECONDS)) {
+			System.out.println("WARNING: timed out waiting for "+(concurrency-inFlight.availablePermits())+" outstanding operations");
+		}
+		elapsedNanos=System.nanoTime()-measureStart;
+		System.out.println("Measured period complete in "+TimeUnit.NANOSECONDS.toMillis(scheduled)+"ms, drained after "+TimeUnit.NANOSECONDS.toMillis(elapsedNanos)+"ms");
+	}
+
+	private void track(CompletableFuture<Map<String,Object>> f, long intended, LatencyHistogram hist, Convex borrowed) {
+		f.whenComplete((r,e)->{
+			long latencyMicros=TimeUnit.NANOSECONDS.toMicros(System.nanoTime()-intended);
+			if (borrowed!=null) accountPool.add(borrowed);
+			inFlight.release();
+			if (hist==null) return;
+			if ((e!=null)||(r==null)||r.containsKey("errorCode")) {
+				errors.incrementAndGet();
+			} else {
+				hist.record(latencyMicros);
+			}
+		});
+	}
+
+	/**
+	 * Prints throughput and latency percentiles for the measured period
+	 */
+	void report() {
+		long completed=queryLatency.getCount()+transactLatency.getCount();
+		System.out.println();
+		System.out.println("Target rate:      "+rate+" ops/s");
+		System.out.println("Issued:           "+issued.get());
+		System.out.println("Succeeded:        "+completed);
+		System.out.println("Errors:           "+errors.get());
+		System.out.println(String.format("Throughput:       %.1f ops/s", completed/(elapsedNanos/1e9)));
+		System.out.println();
+		System.out.println("Latency (us)        count      mean       p50       p90       p99     p99.9    p99.99       max");
+		printLatency("query", queryLatency);
+		printLatency("transact", transactLatency);
+	}
+
+	private static void printLatency(String name, LatencyHistogram h) {
+		System.out.println(String.format("%-12s %12d %9.0f %9d %9d %9d %9d %9d %9d",
+				name,
+				h.getCount(),
+				h.getMean(),
+				h.getValueAtPercentile(50.0),
+				h.getValueAtPercentile(90.0),
+				h.getValueAtPercentile(99.0),
+				h.getValueAtPercentile(99.9),
+				h.getValueAtPercentile(99.99),
+				h.getMax()));
+	}
+}